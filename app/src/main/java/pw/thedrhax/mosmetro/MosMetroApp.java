@@ -52,6 +52,18 @@ public class MosMetroApp extends Application {
 
         if (!ACRA.isACRASenderServiceProcess()) {
             Logger.configure(base);
+
+            // Write pending log lines before ACRA collects the log file
+            final Thread.UncaughtExceptionHandler acra = Thread.getDefaultUncaughtExceptionHandler();
+            Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable ex) {
+                    Logger.flush();
+                    if (acra != null) {
+                        acra.uncaughtException(thread, ex);
+                    }
+                }
+            });
         }
     }
 }
@@ -31,6 +31,7 @@ import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
@@ -42,7 +43,8 @@ import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.TextView;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 import pw.thedrhax.mosmetro.R;
 import pw.thedrhax.mosmetro.services.ConnectionService;
@@ -102,7 +104,7 @@ public class DebugActivity extends Activity {
         logger_callback = new Logger.Callback() {
             @Override
             public void log(Logger.LEVEL level, String message) {
-                text_messages_adapter.refresh();
+                text_messages_adapter.update(level);
             }
         };
 
@@ -233,10 +235,30 @@ public class DebugActivity extends Activity {
         text_messages_adapter.showDebug(((CheckBox)view).isChecked());
     }
 
+    /**
+     * Adapter showing the log of selected level.
+     *
+     * It keeps its own copy of messages and reads only the new ones from Logger
+     * using the cursor. Updates are coalesced to at most one per frame.
+     */
     public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder> {
+        private static final int MAX_ITEMS = 2000;
+
         private boolean show_debug = false;
         private boolean autoscroll = true;
 
+        private final List<String> dataset = new ArrayList<>();
+        private long cursor = 0;
+        private boolean update_pending = false;
+
+        private final Runnable update_task = new Runnable() {
+            @Override
+            public void run() {
+                update_pending = false;
+                append();
+            }
+        };
+
         class ViewHolder extends RecyclerView.ViewHolder {
             TextView mTextView;
 
@@ -257,16 +279,16 @@ public class DebugActivity extends Activity {
 
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            holder.mTextView.setText(getDataset().get(position));
+            holder.mTextView.setText(dataset.get(position));
         }
 
         @Override
         public int getItemCount() {
-            return getDataset().size();
+            return dataset.size();
         }
 
-        private LinkedList<String> getDataset() {
-            return Logger.read(show_debug ? Logger.LEVEL.DEBUG : Logger.LEVEL.INFO);
+        private Logger.LEVEL getLevel() {
+            return show_debug ? Logger.LEVEL.DEBUG : Logger.LEVEL.INFO;
         }
 
         void showDebug(boolean enabled) {
@@ -274,11 +296,54 @@ public class DebugActivity extends Activity {
             refresh();
         }
 
+        /**
+         * Schedule reading of new messages before the next frame.
+         */
+        void update(Logger.LEVEL level) {
+            if (level != getLevel() || update_pending) return;
+
+            update_pending = true;
+            ViewCompat.postOnAnimation(text_messages, update_task);
+        }
+
+        /**
+         * Read new messages and notify about inserted (and evicted) items only.
+         */
+        private void append() {
+            int start = dataset.size();
+            cursor = Logger.read(getLevel(), cursor, dataset);
+            int inserted = dataset.size() - start;
+
+            if (inserted == 0) return;
+            notifyItemRangeInserted(start, inserted);
+
+            int removed = dataset.size() - MAX_ITEMS;
+            if (removed > 0) {
+                dataset.subList(0, removed).clear();
+                notifyItemRangeRemoved(0, removed);
+            }
+
+            scroll();
+        }
+
+        /**
+         * Reload all messages (level changed or log wiped).
+         */
         void refresh() {
+            if (update_pending) {
+                text_messages.removeCallbacks(update_task);
+                update_pending = false;
+            }
+
+            dataset.clear();
+            cursor = Logger.read(getLevel(), 0, dataset);
             notifyDataSetChanged();
+            scroll();
+        }
 
-            if (autoscroll) {
-                text_messages.scrollToPosition(text_messages_adapter.getItemCount() - 1);
+        private void scroll() {
+            if (autoscroll && getItemCount() > 0) {
+                text_messages.scrollToPosition(getItemCount() - 1);
             }
         }
     }
@@ -238,6 +238,10 @@ public class SettingsActivity extends Activity {
             CheckBoxPreference pref_debug_logcat =
                     (CheckBoxPreference) getPreferenceScreen().findPreference("pref_debug_logcat");
             pref_debug_logcat.setOnPreferenceChangeListener(reload_logger);
+
+            CheckBoxPreference pref_debug_capture =
+                    (CheckBoxPreference) getPreferenceScreen().findPreference("pref_debug_capture");
+            pref_debug_capture.setOnPreferenceChangeListener(reload_logger);
         }
     }
 
@@ -431,6 +435,7 @@ public class SettingsActivity extends Activity {
                     .addToBackStack(id)
                     .commit();
         } catch (IllegalStateException ex) { // https://stackoverflow.com/q/7575921
+            Logger.flush();
             ACRA.getErrorReporter().handleException(ex);
         }
     }
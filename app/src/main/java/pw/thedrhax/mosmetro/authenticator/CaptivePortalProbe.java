@@ -0,0 +1,251 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import pw.thedrhax.mosmetro.httpclient.Client;
+import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
+import pw.thedrhax.mosmetro.httpclient.clients.OkHttp;
+import pw.thedrhax.util.Listener;
+import pw.thedrhax.util.Logger;
+import pw.thedrhax.util.Util;
+
+/**
+ * Races several generate_204 probes against each other and returns the first
+ * conclusive answer (204 No Content or a captive portal redirect).
+ *
+ * Hosts are chosen by their statistics in the current network (see ProbeStats).
+ *
+ * Settings:
+ * - pref_probe_count: number of hosts probed during one check (1 = sequential mode)
+ * - pref_probe_concurrency: maximum number of probes running at the same time
+ *
+ * @see Provider#generate_204(Context, Listener)
+ * @see ProbeStats
+ */
+class CaptivePortalProbe {
+    private final Context context;
+    private final Listener<Boolean> running;
+    private final ProbeStats stats;
+
+    private final int count;
+    private final int concurrency;
+
+    CaptivePortalProbe(Context context, Listener<Boolean> running) {
+        this.context = context;
+        this.running = running;
+        this.stats = new ProbeStats(context);
+        this.count = Math.max(1, Util.getIntPreference(context, "pref_probe_count", 3));
+        this.concurrency = Math.max(1, Math.min(count,
+                Util.getIntPreference(context, "pref_probe_concurrency", 3)
+        ));
+    }
+
+    /**
+     * Choose hosts to be probed during one check.
+     * @param hosts List of available generate_204 hosts (without scheme).
+     * @return      Ordered list of hosts, the first ones are started first.
+     */
+    @NonNull
+    protected List<String> choose(String[] hosts) {
+        return stats.rank(hosts, count);
+    }
+
+    /**
+     * Called for every finished probe, except the cancelled ones.
+     * @param host      Probed host (without scheme).
+     * @param latency   Time between the start of the request and the answer, ms.
+     * @param success   True if probe got a conclusive answer.
+     */
+    protected void onProbeResult(final String host, final long latency, final boolean success) {
+        Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+            @Override
+            public String get() {
+                return String.format(Locale.ENGLISH, "CaptivePortalProbe | %s | %s | %d ms",
+                        host, success ? "OK" : "FAIL", latency
+                );
+            }
+        });
+        stats.record(host, latency, success);
+    }
+
+    /**
+     * Called for every probe cancelled because another one has already finished.
+     * It is called by the thread running the check before statistics are saved.
+     * @param host      Probed host (without scheme).
+     * @param elapsed   Time between the start of the request and cancellation, ms.
+     */
+    protected void onProbeCancelled(final String host, final long elapsed) {
+        Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+            @Override
+            public String get() {
+                return String.format(Locale.ENGLISH,
+                        "CaptivePortalProbe | %s | CANCELLED | %d ms", host, elapsed
+                );
+            }
+        });
+        stats.cancelled(host, elapsed);
+    }
+
+    /**
+     * Check if response is enough to determine the state of the network.
+     */
+    private static boolean isConclusive(ParsedResponse response) {
+        if (response.getResponseCode() == 204) return true;
+
+        try {
+            response.parseAnyRedirect();
+            return true;
+        } catch (ParseException ex) {
+            return false;
+        }
+    }
+
+    private class Probe implements Callable<ParsedResponse> {
+        private final String host;
+        private final String url;
+        private final Listener<Boolean> probe_running = new Listener<>(true);
+
+        // Guarded by this. Exactly one of call() and cancel() records the result.
+        private long start = 0;         // 0 = not started yet
+        private boolean finished = false;
+
+        Probe(String scheme, String host) {
+            this.host = host;
+            this.url = scheme + "://" + host;
+        }
+
+        @Override
+        public ParsedResponse call() throws IOException {
+            synchronized (this) {
+                if (finished || !probe_running.get()) {
+                    throw new IOException("Probe cancelled");
+                }
+                start = System.currentTimeMillis();
+            }
+
+            Client client = new OkHttp(context)
+                    .setConnectionReuse(false)
+                    .trustAllCerts()
+                    .followRedirects(false)
+                    .setRunningListener(probe_running);
+
+            Logger.log(Logger.LEVEL.DEBUG, "Provider | generate_204() | URL: " + url);
+
+            ParsedResponse response = null;
+            try {
+                response = client.get(url, null);
+                return response;
+            } finally {
+                synchronized (this) {
+                    if (!finished) {
+                        finished = true;
+
+                        // Check was stopped, the result means nothing
+                        if (response != null || probe_running.get()) {
+                            onProbeResult(host, System.currentTimeMillis() - start,
+                                    response != null && isConclusive(response));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stop the probe and record it as cancelled if it is still in progress.
+         */
+        void cancel() {
+            synchronized (this) {
+                if (!finished) {
+                    finished = true;
+                    if (start != 0 && running.get()) {
+                        onProbeCancelled(host, System.currentTimeMillis() - start);
+                    }
+                }
+            }
+
+            probe_running.set(false);
+        }
+    }
+
+    /**
+     * Run one round of probes.
+     * @param scheme    URL scheme to use (http or https).
+     * @param hosts     List of available generate_204 hosts (without scheme).
+     * @return          First conclusive response, the last received one or null.
+     */
+    ParsedResponse run(String scheme, String[] hosts) {
+        List<Probe> probes = new LinkedList<>();
+        for (String host : choose(hosts)) {
+            Probe probe = new Probe(scheme, host);
+            probe.probe_running.subscribe(running);
+            probes.add(probe);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        CompletionService<ParsedResponse> service = new ExecutorCompletionService<>(executor);
+        ParsedResponse result = null;
+
+        try {
+            for (Probe probe : probes) {
+                service.submit(probe);
+            }
+
+            // Probes follow the running Listener, so they are cancelled and
+            // finished as soon as the check is stopped, and take() returns.
+            for (int finished = 0; finished < probes.size() && running.get(); finished++) {
+                Future<ParsedResponse> future = service.take();
+
+                try {
+                    ParsedResponse response = future.get();
+                    result = response;
+                    if (isConclusive(response)) break;
+                } catch (ExecutionException ex) {
+                    Logger.log(Logger.LEVEL.DEBUG, ex.getCause());
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            // Cancellations are recorded synchronously, so they are saved as well
+            for (Probe probe : probes) {
+                probe.cancel();
+                probe.probe_running.unsubscribe(running);
+            }
+            executor.shutdownNow();
+            stats.save();
+        }
+
+        return result;
+    }
+}
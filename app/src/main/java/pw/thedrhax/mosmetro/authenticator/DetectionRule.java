@@ -0,0 +1,109 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
+
+/**
+ * Declarative condition on ResponseFeatures that identifies a Provider.
+ *
+ * Example: DetectionRule.redirect().contains(".wi-fi.ru").excludes("login.wi-fi.ru")
+ *
+ * @see Provider#find(android.content.Context, ParsedResponse)
+ */
+public class DetectionRule {
+    private enum Source {
+        REDIRECT, META_REDIRECT, LOCATION_REDIRECT
+    }
+
+    private final Source source;
+    private final List<String> required = new LinkedList<>();
+    private final List<String> excluded = new LinkedList<>();
+    private String heading = null;
+
+    private DetectionRule(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Check meta redirect or, if it is absent, Location redirect.
+     */
+    public static DetectionRule redirect() {
+        return new DetectionRule(Source.REDIRECT);
+    }
+
+    public static DetectionRule metaRedirect() {
+        return new DetectionRule(Source.META_REDIRECT);
+    }
+
+    public static DetectionRule locationRedirect() {
+        return new DetectionRule(Source.LOCATION_REDIRECT);
+    }
+
+    /**
+     * Redirect must contain this substring.
+     */
+    public DetectionRule contains(String substring) {
+        required.add(substring); return this;
+    }
+
+    /**
+     * Redirect must not contain this substring.
+     */
+    public DetectionRule excludes(String substring) {
+        excluded.add(substring); return this;
+    }
+
+    /**
+     * Contents of the first <h2> tag must be equal to this string.
+     * Checked last, because it requires to parse the DOM.
+     */
+    public DetectionRule heading(String html) {
+        this.heading = html; return this;
+    }
+
+    boolean evaluate(ResponseFeatures features) {
+        String value;
+
+        switch (source) {
+            case META_REDIRECT: value = features.meta_redirect; break;
+            case LOCATION_REDIRECT: value = features.location_redirect; break;
+            default: value = features.getRedirect();
+        }
+
+        if (value == null) return false;
+
+        for (String substring : required) {
+            if (!value.contains(substring)) return false;
+        }
+
+        for (String substring : excluded) {
+            if (value.contains(substring)) return false;
+        }
+
+        return heading == null || heading.equals(features.getHeading());
+    }
+
+    public boolean match(ParsedResponse response) {
+        return ResponseFeatures.of(response).matches(this);
+    }
+}
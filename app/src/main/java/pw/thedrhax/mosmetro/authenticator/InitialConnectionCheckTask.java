@@ -55,6 +55,42 @@ public abstract class InitialConnectionCheckTask implements Task {
             return false;
         }
 
+        if (p.speculation != null) {
+            ProviderMemo.Entry entry = p.speculation;
+            p.speculation = null;
+
+            DetectionRule rule = Provider.getRule(p.getClass());
+            final Class<? extends Provider> type = rule != null && rule.match(response)
+                    ? p.getClass() : Provider.detect(p.context, response);
+
+            if (type == null) {
+                // Unrecognized response, rely on the remembered redirect
+                ParsedResponse remembered = entry.getResponse();
+                if (remembered != null) response = remembered;
+            } else if (type != p.getClass()) {
+                Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                    @Override
+                    public String get() {
+                        return "Provider | Remembered Provider is wrong, detected: " + type.getSimpleName();
+                    }
+                });
+                new ProviderMemo(p.context).forget();
+
+                Provider provider = Provider.create(p.context, type, response);
+                vars.put("switch", provider.getName());
+                vars.put("memo_provider", provider.getName());
+
+                Logger.log(p.context.getString(R.string.auth_algorithm_switch, provider.getName()));
+                return p.replace(this, provider);
+            } else {
+                Logger.log(Logger.LEVEL.DEBUG, "Provider | Remembered Provider is confirmed");
+            }
+        }
+
+        if (!vars.containsKey("memo_redirect")) {
+            vars.put("memo_redirect", ResponseFeatures.of(response).getRedirect());
+        }
+
         return handle_response(vars, response);
     }
 
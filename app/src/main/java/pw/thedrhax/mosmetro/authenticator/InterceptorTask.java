@@ -77,6 +77,10 @@ public abstract class InterceptorTask implements Task {
         return response;
     }
 
+    public String getRegex() {
+        return regex;
+    }
+
     public boolean match(String url) {
         return pattern != null && pattern.matcher(url).matches();
     }
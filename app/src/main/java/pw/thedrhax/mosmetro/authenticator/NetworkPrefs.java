@@ -0,0 +1,90 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import android.content.SharedPreferences;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounds the size of SharedPreferences that store a JSON object per Wi-Fi network.
+ *
+ * Every object must contain the time of the last update (ms) under TIME_KEY.
+ * Objects without it are treated as the oldest ones.
+ *
+ * @see ProbeStats
+ * @see ProviderMemo
+ */
+class NetworkPrefs {
+    static final String TIME_KEY = "time";
+
+    /**
+     * Remove entries older than max_age and the oldest ones over max_count.
+     */
+    static void trim(SharedPreferences prefs, int max_count, long max_age) {
+        Map<String,?> all = prefs.getAll();
+        if (all.size() <= max_count && max_age <= 0) return;
+
+        final Map<String,Long> times = new HashMap<>();
+        for (Map.Entry<String,?> entry : all.entrySet()) {
+            times.put(entry.getKey(), getTime(entry.getValue()));
+        }
+
+        List<String> keys = new ArrayList<>(times.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long diff = times.get(b) - times.get(a); // newest first
+                return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = prefs.edit();
+        boolean changed = false;
+
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (i >= max_count || (max_age > 0 && now - times.get(key) > max_age)) {
+                editor.remove(key);
+                changed = true;
+            }
+        }
+
+        if (changed) editor.apply();
+    }
+
+    private static long getTime(Object value) {
+        try {
+            Object time = ((JSONObject) new JSONParser().parse((String) value)).get(TIME_KEY);
+            return time instanceof Number ? ((Number) time).longValue() : 0;
+        } catch (ParseException | ClassCastException | NullPointerException ex) {
+            return 0;
+        }
+    }
+}
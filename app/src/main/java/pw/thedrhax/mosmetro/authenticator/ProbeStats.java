@@ -0,0 +1,239 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import pw.thedrhax.util.WifiUtils;
+
+/**
+ * Persistent scoreboard of generate_204 hosts for the current Wi-Fi network.
+ *
+ * Every host has an exponentially weighted moving average (EWMA) of latency and
+ * failure rate. Hosts that failed several times in a row are put on exponential
+ * back-off. Statistics are stored separately for each SSID/BSSID pair, only
+ * MAX_NETWORKS recently used networks are kept.
+ *
+ * Storage format: SharedPreferences PREFS_NAME, network → {"time":<ms>, "hosts":{host → Entry}}
+ *
+ * @see CaptivePortalProbe
+ */
+class ProbeStats {
+    private static final String PREFS_NAME = "probe_stats";
+
+    private static final double ALPHA = 0.3;           // EWMA smoothing factor
+    private static final double EXPLORE = 0.2;         // Probability of exploration
+    private static final long BACKOFF_BASE = 30*1000;  // First back-off interval, ms
+    private static final long BACKOFF_MAX = 60*60*1000;
+    private static final int MAX_NETWORKS = 32;
+    private static final long MAX_AGE = 30L*24*60*60*1000; // Since the last check, ms
+
+    private final SharedPreferences prefs;
+    private final String network;
+    private final Map<String,Entry> entries = new HashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private static class Entry {
+        double latency = -1;    // EWMA of latency, ms (-1 = unknown)
+        double failure = 0;     // EWMA of failure rate [0; 1]
+        long fails = 0;         // Consecutive failures
+        long last_fail = 0;     // Timestamp of the last failure, ms
+
+        long backoffUntil() {
+            if (fails == 0) return 0;
+            long interval = BACKOFF_BASE << Math.min(fails - 1, 16);
+            return last_fail + Math.min(interval, BACKOFF_MAX);
+        }
+
+        double score() {
+            // Unknown hosts are tried first to collect some statistics
+            if (latency < 0) return 0;
+            return latency * (1 + 4 * failure);
+        }
+
+        JSONObject toJSON() {
+            JSONObject result = new JSONObject();
+            result.put("latency", latency);
+            result.put("failure", failure);
+            result.put("fails", fails);
+            result.put("last_fail", last_fail);
+            return result;
+        }
+
+        static Entry fromJSON(JSONObject json) {
+            Entry result = new Entry();
+            try {
+                result.latency = ((Number) json.get("latency")).doubleValue();
+                result.failure = ((Number) json.get("failure")).doubleValue();
+                result.fails = ((Number) json.get("fails")).longValue();
+                result.last_fail = ((Number) json.get("last_fail")).longValue();
+            } catch (ClassCastException | NullPointerException ignored) {}
+            return result;
+        }
+    }
+
+    ProbeStats(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        WifiUtils wifi = new WifiUtils(context);
+        String bssid = null;
+        try {
+            bssid = wifi.getWifiInfo(null).getBSSID();
+        } catch (NullPointerException ignored) {}
+        this.network = wifi.getSSID() + "|" + bssid;
+
+        load();
+    }
+
+    private synchronized void load() {
+        entries.clear();
+
+        try {
+            JSONObject json = (JSONObject) new JSONParser().parse(prefs.getString(network, "{}"));
+            JSONObject hosts = (JSONObject) json.get("hosts");
+            if (hosts == null) return;
+
+            for (Object key : hosts.keySet()) {
+                entries.put((String) key, Entry.fromJSON((JSONObject) hosts.get(key)));
+            }
+        } catch (ParseException | ClassCastException ignored) {}
+    }
+
+    synchronized void save() {
+        JSONObject hosts = new JSONObject();
+        for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+            hosts.put(entry.getKey(), entry.getValue().toJSON());
+        }
+
+        JSONObject json = new JSONObject();
+        json.put(NetworkPrefs.TIME_KEY, System.currentTimeMillis());
+        json.put("hosts", hosts);
+        prefs.edit().putString(network, json.toJSONString()).apply();
+
+        NetworkPrefs.trim(prefs, MAX_NETWORKS, MAX_AGE);
+    }
+
+    private Entry get(String host) {
+        Entry entry = entries.get(host);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(host, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Record the result of a finished probe.
+     * @param host      Probed host.
+     * @param latency   Time spent on the request, ms.
+     * @param success   True if conclusive answer was received.
+     */
+    synchronized void record(String host, long latency, boolean success) {
+        Entry entry = get(host);
+
+        if (success) {
+            entry.latency = entry.latency < 0 ? latency :
+                    ALPHA * latency + (1 - ALPHA) * entry.latency;
+            entry.failure = (1 - ALPHA) * entry.failure;
+            entry.fails = 0;
+        } else {
+            entry.failure = ALPHA + (1 - ALPHA) * entry.failure;
+            entry.fails++;
+            entry.last_fail = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Record a probe cancelled because another host answered first.
+     * Elapsed time is a lower bound of the host's latency, so it is only taken
+     * into account if it makes the estimate worse.
+     */
+    synchronized void cancelled(String host, long elapsed) {
+        Entry entry = get(host);
+
+        if (entry.latency < elapsed) {
+            entry.latency = entry.latency < 0 ? elapsed :
+                    ALPHA * elapsed + (1 - ALPHA) * entry.latency;
+        }
+    }
+
+    /**
+     * Sort hosts by their expected performance in the current network.
+     * @param hosts List of available hosts.
+     * @param count Number of hosts to return.
+     * @return      The fastest healthy hosts, sometimes with a random one to explore.
+     */
+    @NonNull
+    synchronized List<String> rank(String[] hosts, int count) {
+        final long now = System.currentTimeMillis();
+
+        List<String> healthy = new LinkedList<>();
+        List<String> backoff = new LinkedList<>();
+
+        for (String host : hosts) {
+            if (get(host).backoffUntil() > now) {
+                backoff.add(host);
+            } else {
+                healthy.add(host);
+            }
+        }
+
+        // Randomize order of hosts with equal score
+        Collections.shuffle(healthy, random);
+        Collections.shuffle(backoff, random);
+
+        Collections.sort(healthy, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Double.compare(get(a).score(), get(b).score());
+            }
+        });
+
+        List<String> result = new LinkedList<>(healthy);
+        result.addAll(backoff);
+
+        if (result.size() <= count) {
+            return result;
+        }
+
+        List<String> rest = new LinkedList<>(result.subList(count, result.size()));
+        result = new LinkedList<>(result.subList(0, count));
+
+        // Exploration: replace the worst chosen host by a random one
+        if (random.nextDouble() < EXPLORE) {
+            result.set(count - 1, rest.get(random.nextInt(rest.size())));
+        }
+
+        return result;
+    }
+}
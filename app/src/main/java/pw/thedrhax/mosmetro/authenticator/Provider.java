@@ -22,11 +22,13 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import pw.thedrhax.mosmetro.R;
 import pw.thedrhax.mosmetro.authenticator.providers.Enforta;
@@ -86,6 +88,24 @@ public abstract class Provider extends LinkedList<Task> {
             "MAInet_public"
     };
 
+    /**
+     * Hosts of captive portals, whose cookies are kept between runs of Provider
+     */
+    private static final String[] PORTAL_HOSTS = {
+            "wi-fi.ru",
+            "hotspot.maximatelecom",
+            "wifi.mai.ru"
+    };
+
+    /**
+     * Providers that can be remembered for a network by ProviderMemo. Others need
+     * per-connection parameters from the redirect (MAC address etc), so they
+     * can't be started from the remembered one.
+     */
+    private static final List<Class<? extends Provider>> REMEMBERED = Arrays.asList(
+            MosMetroV2.class
+    );
+
     protected Context context;
     protected SharedPreferences settings;
     protected Randomizer random;
@@ -93,6 +113,12 @@ public abstract class Provider extends LinkedList<Task> {
     private List<Provider> children = new LinkedList<>();
     private boolean initialized = false;
 
+    /**
+     * Entry of ProviderMemo this Provider was started from without detection.
+     * Verified and cleared by the first InitialConnectionCheckTask.
+     */
+    ProviderMemo.Entry speculation = null;
+
     /**
      * Number of retries for each request
      */
@@ -112,17 +138,108 @@ public abstract class Provider extends LinkedList<Task> {
      * @see Client
      */
     @NonNull public static Provider find(Context context, ParsedResponse response) {
+        return create(context, detect(context, response), response);
+    }
+
+    /**
+     * Detect the type of Provider using already received response from server.
+     * @return Class of the Provider or null if the response is not recognized.
+     */
+    @Nullable static Class<? extends Provider> detect(Context context, ParsedResponse response) {
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
 
-        if (MosMetroV3.match(response) && settings.getBoolean("pref_mosmetro_v3", true)) return new MosMetroV3(context, response);
-        else if (MosMetroV2.match(response)) return new MosMetroV2(context, response);
-        else if (MosMetroV2mcc.match(response)) return new MosMetroV2mcc(context, response);
-        else if (MosMetroV1.match(response)) return new MosMetroV1(context, response);
-        else if (MAInet.match(response) && settings.getBoolean("pref_mainet", true)) return new MAInet(context, response);
-        else if (Enforta.match(response)) return new Enforta(context);
+        // Redirects are extracted only once and shared by all rules
+        final ResponseFeatures features = ResponseFeatures.of(response);
+        Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+            @Override
+            public String get() {
+                return "Provider | Detecting by " + features;
+            }
+        });
+
+        if (features.matches(MosMetroV3.RULE) && isEnabled(settings, MosMetroV3.class)) return MosMetroV3.class;
+        else if (features.matches(MosMetroV2.RULE)) return MosMetroV2.class;
+        else if (features.matches(MosMetroV2mcc.RULE)) return MosMetroV2mcc.class;
+        else if (features.matches(MosMetroV1.RULE)) return MosMetroV1.class;
+        else if (features.matches(MAInet.RULE) && isEnabled(settings, MAInet.class)) return MAInet.class;
+        else if (features.matches(Enforta.RULE)) return Enforta.class;
+        else return null;
+    }
+
+    /**
+     * Create a new instance of the Provider detected by detect().
+     * @param type      Class of the Provider or null to create Unknown.
+     * @param response  Response passed to the first Task of the Provider. If null,
+     *                  the first Task will send its own generate_204 request.
+     */
+    @NonNull static Provider create(Context context, @Nullable Class<? extends Provider> type,
+                                    ParsedResponse response) {
+        if (type == MosMetroV3.class) return new MosMetroV3(context, response);
+        else if (type == MosMetroV2.class) return new MosMetroV2(context, response);
+        else if (type == MosMetroV2mcc.class) return new MosMetroV2mcc(context, response);
+        else if (type == MosMetroV1.class) return new MosMetroV1(context, response);
+        else if (type == MAInet.class) return new MAInet(context, response);
+        else if (type == Enforta.class) return new Enforta(context);
         else return new Unknown(context, response);
     }
 
+    /**
+     * @return Rule used by detect() to recognize the Provider or null if it has none.
+     */
+    @Nullable static DetectionRule getRule(Class<? extends Provider> type) {
+        if (type == MosMetroV3.class) return MosMetroV3.RULE;
+        else if (type == MosMetroV2.class) return MosMetroV2.RULE;
+        else if (type == MosMetroV2mcc.class) return MosMetroV2mcc.RULE;
+        else if (type == MosMetroV1.class) return MosMetroV1.RULE;
+        else if (type == MAInet.class) return MAInet.RULE;
+        else if (type == Enforta.class) return Enforta.RULE;
+        else return null;
+    }
+
+    private static boolean isEnabled(SharedPreferences settings, Class<? extends Provider> type) {
+        if (type == MosMetroV3.class) return settings.getBoolean("pref_mosmetro_v3", true);
+        if (type == MAInet.class) return settings.getBoolean("pref_mainet", true);
+        return true;
+    }
+
+    private static boolean isRemembered(String name) {
+        for (Class<? extends Provider> type : REMEMBERED) {
+            if (type.getSimpleName().equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create the Provider remembered for the current network without detection.
+     * @return Provider or null if there is no confident entry in ProviderMemo.
+     */
+    @Nullable private static Provider remembered(Context context, SharedPreferences settings) {
+        if (!settings.getBoolean("pref_provider_memo", true)) return null;
+
+        final ProviderMemo.Entry entry = new ProviderMemo(context).get();
+        if (entry == null) return null;
+
+        for (Class<? extends Provider> type : REMEMBERED) {
+            if (type.getSimpleName().equals(entry.provider) && isEnabled(settings, type)) {
+                Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                    @Override
+                    public String get() {
+                        return "Provider | Remembered: " + entry;
+                    }
+                });
+                Logger.log(context.getString(R.string.auth_provider_remembered, entry.provider));
+
+                // The first Task still sends generate_204 to detect an already
+                // established connection and to verify the guess
+                Provider result = create(context, type, null);
+                result.speculation = entry;
+                return result;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Find Provider by sending predefined request to get the redirect.
      *
@@ -132,13 +249,22 @@ public abstract class Provider extends LinkedList<Task> {
      */
     @NonNull public static Provider find(Context context, Listener<Boolean> running) {
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+
+        Provider remembered = remembered(context, settings);
+        if (remembered != null) return remembered;
+
         Logger.log(context.getString(R.string.auth_provider_check));
 
         ParsedResponse response = generate_204(context, running);
         Provider result = Provider.find(context, response);
 
         if (result instanceof Unknown && response.getResponseCode() != 204) {
-            Logger.log(Logger.LEVEL.DEBUG, response.toString());
+            Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                @Override
+                public String get() {
+                    return response.toString();
+                }
+            });
             Logger.log(context.getString(R.string.error,
                     context.getString(R.string.auth_error_provider)
             ));
@@ -177,7 +303,7 @@ public abstract class Provider extends LinkedList<Task> {
         this.settings = PreferenceManager.getDefaultSharedPreferences(context);
         this.random = new Randomizer(context);
         this.pref_retry_count = Util.getIntPreference(context, "pref_retry_count", 3);
-        setClient(new OkHttp(context));
+        setClient(new OkHttp(context).setPersistentCookies(PORTAL_HOSTS));
     }
 
     /**
@@ -186,33 +312,14 @@ public abstract class Provider extends LinkedList<Task> {
      * @return ParsedResponse that contains response code to be compared with 204.
      */
     public static ParsedResponse generate_204(Context context, Listener<Boolean> running) {
-        Randomizer random  = new Randomizer(context);
-
-        Client client = new OkHttp(context)
-                .trustAllCerts()
-                .followRedirects(false)
-                .setRunningListener(running);
-
-        ParsedResponse response = new ParsedResponse("<b>Empty response</b>");
-
-        try {
-            String url = "http://" + random.choose(GENERATE_204);
-            Logger.log(Logger.LEVEL.DEBUG, "Provider | generate_204() | URL: " + url);
-            response = client.get(url, null);
-        } catch (IOException ex) {
-            Logger.log(Logger.LEVEL.DEBUG, ex);
-            return response;
-        }
-        if (response.getResponseCode() != 204) return response;
+        CaptivePortalProbe probe = new CaptivePortalProbe(context, running);
 
-        try {
-            response = client.get("https://" + random.choose(GENERATE_204), null);
-        } catch (IOException ex) {
-            Logger.log(Logger.LEVEL.DEBUG, ex);
-            return response;
-        }
+        ParsedResponse response = probe.run("http", GENERATE_204);
+        if (response == null) return new ParsedResponse("<b>Empty response</b>");
+        if (response.getResponseCode() != 204) return response;
 
-        return response;
+        ParsedResponse secure = probe.run("https", GENERATE_204);
+        return secure != null ? secure : response;
     }
 
     /**
@@ -255,6 +362,23 @@ public abstract class Provider extends LinkedList<Task> {
         return super.addAll(index, p) && (!initialized || init());
     }
 
+    /**
+     * Replace all Tasks after 'task' with Tasks of another Provider.
+     * @return True if Tasks are added and initialized successfully
+     */
+    boolean replace(Task task, Provider p) {
+        int index = indexOf(task);
+
+        while (size() > index + 1) {
+            Task removed = removeLast();
+            if (removed instanceof InterceptorTask) {
+                client.interceptors.remove((InterceptorTask) removed);
+            }
+        }
+
+        return add(index + 1, p);
+    }
+
     /**
      * Initialize this Provider and it's children.
      * Warning: May be called more than once!
@@ -315,15 +439,29 @@ public abstract class Provider extends LinkedList<Task> {
             return RESULT.ERROR;
         }
 
+        Trace trace = new Trace(getName());
+        client.addRequestListener(trace);
+
+        List<ITaskListener> listeners = new LinkedList<ITaskListener>(task_listeners);
+        listeners.add(trace);
+
+        List<TaskStats> task_stats = new LinkedList<>();
+        vars.put("task_stats", task_stats);
+
         int progress;
         for (int i = 0; i < size(); i++) {
             if (isStopped()) {
-                deinit();
-                if (vars.get("result") != RESULT.ERROR) {
-                    return (RESULT) vars.get("result");
-                } else {
-                    return RESULT.INTERRUPTED;
+                RESULT result = (RESULT) vars.get("result");
+                if (result == RESULT.ERROR) {
+                    result = RESULT.INTERRUPTED;
                 }
+
+                client.removeRequestListener(trace);
+                trace.finish(result);
+                trace.save(context);
+
+                deinit();
+                return result;
             }
 
             progress = (i + 1) * 100 / size();
@@ -333,17 +471,82 @@ public abstract class Provider extends LinkedList<Task> {
             } else {
                 callback.onProgressUpdate(progress);
             }
-            if (!get(i).run(vars)) break;
+
+            final Task task = get(i);
+            final TaskStats stats = new TaskStats(Trace.getTaskClass(task));
+
+            for (ITaskListener listener : listeners) {
+                listener.onTaskStart(i, task);
+            }
+
+            client.addRequestListener(stats);
+            stats.start();
+            boolean success = task.run(vars);
+            stats.stop();
+            client.removeRequestListener(stats);
+            task_stats.add(stats);
+
+            Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                @Override
+                public String get() {
+                    return stats.toString();
+                }
+            });
+
+            for (ITaskListener listener : listeners) {
+                listener.onTaskEnd(i, task, stats, success);
+            }
+
+            if (!success) break;
         }
 
+        client.removeRequestListener(trace);
+        trace.finish((RESULT) vars.get("result"));
+        trace.save(context);
+
+        remember(vars);
+
         vars.put("time_end", System.currentTimeMillis());
         new StatisticsTask(this).run(vars);
 
+        Logger.log(this, "Resource cache | Hits: " + OkHttp.getCacheHitCount() +
+                " | Misses: " + OkHttp.getCacheMissCount());
+
         deinit();
         Logger.date("<< ");
         return (RESULT)vars.get("result");
     }
 
+    /**
+     * Update ProviderMemo of the current network with the result of start().
+     * memo_provider: Name of the Provider detected after failed speculation
+     * memo_redirect: Redirect received by the first InitialConnectionCheckTask
+     */
+    private void remember(HashMap<String,Object> vars) {
+        if (!settings.getBoolean("pref_provider_memo", true)) return;
+
+        ProviderMemo memo = new ProviderMemo(context);
+        String name = vars.containsKey("memo_provider") ? (String) vars.get("memo_provider") : getName();
+
+        switch ((RESULT) vars.get("result")) {
+            case CONNECTED:
+                if (isRemembered(name)) {
+                    memo.success(name, (String) vars.get("memo_redirect"));
+                } else {
+                    memo.forget();
+                }
+                break;
+
+            case ERROR:
+            case NOT_REGISTERED:
+                memo.failure(name);
+                break;
+
+            default:
+                break;
+        }
+    }
+
     /**
      * Listener used to stop Provider immediately after
      * variable is changed by another thread
@@ -406,6 +609,36 @@ public abstract class Provider extends LinkedList<Task> {
         }
     };
 
+    /**
+     * The ITaskListener interface is used to measure execution of every Task
+     * in start().
+     */
+    public interface ITaskListener {
+        /**
+         * Called before the Task is started.
+         * @param index Position of the Task in this Provider.
+         */
+        void onTaskStart(int index, Task task);
+
+        /**
+         * Called after the Task is finished.
+         * @param index     Position of the Task in this Provider.
+         * @param stats     Timings, request and retry counts of the Task.
+         * @param success   Result of Task.run().
+         */
+        void onTaskEnd(int index, Task task, TaskStats stats, boolean success);
+    }
+
+    private final List<ITaskListener> task_listeners = new CopyOnWriteArrayList<>();
+
+    public Provider addTaskListener(ITaskListener listener) {
+        task_listeners.add(listener); return this;
+    }
+
+    public Provider removeTaskListener(ITaskListener listener) {
+        task_listeners.remove(listener); return this;
+    }
+
     /**
      * Set callback for this Provider.
      * @param callback  Any implementation of the ICallback interface.
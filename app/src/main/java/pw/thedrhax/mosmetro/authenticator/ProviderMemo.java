@@ -0,0 +1,205 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import pw.thedrhax.mosmetro.httpclient.Client;
+import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
+import pw.thedrhax.util.WifiUtils;
+
+/**
+ * Persistent memo of the last successful Provider for the current Wi-Fi network.
+ *
+ * Every SSID/BSSID pair remembers the name of the Provider and the redirect
+ * received from generate_204. Only the path and the segment parameter of the
+ * redirect are stored, because the rest of the query may contain personal data
+ * (MAC address etc). Confidence grows with every successful connection and
+ * decays after failures. Only confident and recent entries are used by
+ * Provider.find() to skip detection, and at most MAX_NETWORKS entries are kept.
+ *
+ * @see Provider#find(Context, pw.thedrhax.util.Listener)
+ */
+class ProviderMemo {
+    private static final String PREFS_NAME = "provider_memo";
+
+    private static final double ALPHA = 0.3;            // Confidence change per connection
+    private static final double INITIAL = 0.5;          // Confidence of a new entry
+    private static final double THRESHOLD = 0.6;        // Minimal confidence to be used
+    private static final long EXPIRY = 24*60*60*1000;   // Lifetime after the last success, ms
+    private static final int MAX_NETWORKS = 32;
+
+    private final SharedPreferences prefs;
+    private final String network;
+
+    static class Entry {
+        String provider = null;
+        String redirect = null;
+        double confidence = 0;
+        long time = 0;          // Timestamp of the last success, ms
+
+        boolean isValid() {
+            return provider != null && confidence >= THRESHOLD &&
+                    System.currentTimeMillis() - time < EXPIRY;
+        }
+
+        /**
+         * @return Response with the remembered redirect or null if it is unknown.
+         */
+        @Nullable
+        ParsedResponse getResponse() {
+            if (redirect == null) return null;
+
+            Map<String,List<String>> headers = Collections.singletonMap(
+                    Client.HEADER_LOCATION.toLowerCase(), Collections.singletonList(redirect)
+            );
+            return new ParsedResponse(redirect, "", 302, headers);
+        }
+
+        JSONObject toJSON() {
+            JSONObject result = new JSONObject();
+            result.put("provider", provider);
+            result.put("redirect", redirect);
+            result.put("confidence", confidence);
+            result.put(NetworkPrefs.TIME_KEY, time);
+            return result;
+        }
+
+        static Entry fromJSON(JSONObject json) {
+            Entry result = new Entry();
+            try {
+                result.provider = (String) json.get("provider");
+                result.redirect = (String) json.get("redirect");
+                result.confidence = ((Number) json.get("confidence")).doubleValue();
+                result.time = ((Number) json.get(NetworkPrefs.TIME_KEY)).longValue();
+            } catch (ClassCastException | NullPointerException ignored) {}
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return toJSON().toJSONString();
+        }
+    }
+
+    ProviderMemo(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        WifiUtils wifi = new WifiUtils(context);
+        String bssid = null;
+        try {
+            bssid = wifi.getWifiInfo(null).getBSSID();
+        } catch (NullPointerException ignored) {}
+        this.network = wifi.getSSID() + "|" + bssid;
+    }
+
+    private Entry load() {
+        try {
+            return Entry.fromJSON((JSONObject) new JSONParser().parse(prefs.getString(network, "{}")));
+        } catch (ParseException | ClassCastException ex) {
+            return new Entry();
+        }
+    }
+
+    private void save(Entry entry) {
+        prefs.edit().putString(network, entry.toJSON().toJSONString()).apply();
+        NetworkPrefs.trim(prefs, MAX_NETWORKS, EXPIRY);
+    }
+
+    /**
+     * Remove everything from the redirect except scheme, host, path and segment.
+     * @return Sanitized redirect or null if it is not a valid URL.
+     */
+    @Nullable
+    static String sanitize(@Nullable String redirect) {
+        if (redirect == null) return null;
+
+        Uri uri = Uri.parse(redirect);
+        if (uri.getScheme() == null || uri.getHost() == null) return null;
+
+        Uri.Builder builder = new Uri.Builder()
+                .scheme(uri.getScheme())
+                .authority(uri.getHost())
+                .path(uri.getPath());
+
+        String segment = uri.getQueryParameter("segment");
+        if (segment != null) builder.appendQueryParameter("segment", segment);
+
+        return builder.build().toString();
+    }
+
+    /**
+     * @return Confident and not expired entry for the current network or null.
+     */
+    @Nullable
+    synchronized Entry get() {
+        Entry entry = load();
+        return entry.isValid() ? entry : null;
+    }
+
+    /**
+     * Record a successful connection.
+     * @param provider  Name of the Provider.
+     * @param redirect  Redirect received from generate_204, may be null.
+     */
+    synchronized void success(String provider, @Nullable String redirect) {
+        Entry entry = load();
+
+        if (provider.equals(entry.provider)) {
+            entry.confidence = ALPHA + (1 - ALPHA) * entry.confidence;
+        } else {
+            entry.provider = provider;
+            entry.confidence = INITIAL;
+        }
+
+        redirect = sanitize(redirect);
+        if (redirect != null) entry.redirect = redirect;
+        entry.time = System.currentTimeMillis();
+        save(entry);
+    }
+
+    /**
+     * Record a failed connection of the Provider.
+     */
+    synchronized void failure(String provider) {
+        Entry entry = load();
+        if (!provider.equals(entry.provider)) return;
+
+        entry.confidence = (1 - ALPHA) * entry.confidence;
+        save(entry);
+    }
+
+    /**
+     * Remove the entry of the current network, because it is no longer correct.
+     */
+    synchronized void forget() {
+        prefs.edit().remove(network).apply();
+    }
+}
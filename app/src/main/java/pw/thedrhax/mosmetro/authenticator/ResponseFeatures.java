@@ -0,0 +1,131 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jsoup.nodes.Element;
+
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
+
+/**
+ * Properties of a ParsedResponse used to detect the Provider.
+ *
+ * Redirects are extracted once, DOM markers are extracted on first use. Both
+ * features and results of DetectionRules are memoized per response, so
+ * repeated detection on the same response costs nothing.
+ *
+ * @see DetectionRule
+ */
+public class ResponseFeatures {
+    private static final Map<ParsedResponse,ResponseFeatures> cache = new WeakHashMap<>();
+
+    private final WeakReference<ParsedResponse> response;
+    private final Map<DetectionRule,Boolean> results = new IdentityHashMap<>();
+
+    public final int code;
+    @Nullable public final String meta_redirect;
+    @Nullable public final String location_redirect;
+
+    private boolean heading_parsed = false;
+    private String heading = null;
+
+    private ResponseFeatures(ParsedResponse response) {
+        this.response = new WeakReference<>(response);
+        this.code = response.getResponseCode();
+
+        String meta = null;
+        try {
+            meta = response.parseMetaRedirect();
+        } catch (ParseException ignored) {}
+        this.meta_redirect = meta;
+
+        String location = null;
+        try {
+            location = response.get300Redirect();
+        } catch (ParseException ignored) {}
+        this.location_redirect = location;
+    }
+
+    @NonNull
+    public static ResponseFeatures of(@NonNull ParsedResponse response) {
+        synchronized (cache) {
+            ResponseFeatures result = cache.get(response);
+            if (result == null) {
+                result = new ResponseFeatures(response);
+                cache.put(response, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return Meta redirect if present, otherwise Location redirect, like
+     *         ParsedResponse.parseAnyRedirect().
+     */
+    @Nullable
+    public String getRedirect() {
+        return meta_redirect != null ? meta_redirect : location_redirect;
+    }
+
+    /**
+     * @return Contents of the first <h2> tag or null if there is no such tag.
+     */
+    @Nullable
+    public synchronized String getHeading() {
+        if (!heading_parsed) {
+            heading_parsed = true;
+
+            ParsedResponse response = this.response.get();
+            if (response != null) {
+                Element element = response.getPageContent().getElementsByTag("h2").first();
+                heading = element != null ? element.html() : null;
+            }
+        }
+
+        return heading;
+    }
+
+    public boolean matches(DetectionRule rule) {
+        synchronized (results) {
+            Boolean result = results.get(rule);
+            if (result != null) return result;
+        }
+
+        boolean result = rule.evaluate(this);
+
+        synchronized (results) {
+            results.put(rule, result);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Code: " + code + " | Meta: " + meta_redirect + " | Location: " + location_redirect;
+    }
+}
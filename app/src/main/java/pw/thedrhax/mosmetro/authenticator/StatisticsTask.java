@@ -24,8 +24,11 @@ import android.content.Intent;
 import android.os.AsyncTask;
 import android.support.annotation.Nullable;
 
+import org.json.simple.JSONArray;
+
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import pw.thedrhax.mosmetro.BuildConfig;
@@ -90,6 +93,24 @@ class StatisticsTask implements Task {
         }
     }
 
+    /**
+     * Task metrics factory
+     *
+     * tasks: JSON array of TaskStats in order of execution, each with a name
+     *        of Task class
+     */
+    private void tasks(Map<String,String> params, Map<String,Object> vars) {
+        if (!vars.containsKey("task_stats")) return;
+
+        JSONArray tasks = new JSONArray();
+
+        for (TaskStats stats : (List<TaskStats>) vars.get("task_stats")) {
+            tasks.add(stats.toJSON());
+        }
+
+        params.put("tasks", tasks.toJSONString());
+    }
+
     @SuppressLint("StaticFieldLeak")
     @Override
     public boolean run(HashMap<String, Object> vars) {
@@ -112,7 +133,10 @@ class StatisticsTask implements Task {
 
         params.put("success", connected ? "true" : "false");
         params.put("ssid", wifi.getSSID());
-        params.put("provider", p.getName());
+        // Remembered Provider may have been replaced by the detected one
+        String provider = vars.containsKey("memo_provider") ?
+                (String) vars.get("memo_provider") : p.getName();
+        params.put("provider", provider);
         params.put("bssid", wifi.getWifiInfo(null).getBSSID());
 
         if (vars.containsKey("time_start") && vars.containsKey("time_end")) {
@@ -120,18 +144,21 @@ class StatisticsTask implements Task {
             params.put("duration", "" + duration);
         }
 
-        if (p instanceof MosMetroV2) mosmetrov2(params, vars);
-        if (p instanceof MosMetroV3) mosmetrov3(params, vars);
+        if (MosMetroV2.class.getSimpleName().equals(provider)) mosmetrov2(params, vars);
+        if (MosMetroV3.class.getSimpleName().equals(provider)) mosmetrov3(params, vars);
+
+        if (p.settings.getBoolean("pref_debug_task_stats", false)) tasks(params, vars);
 
         new AsyncTask<Void,Void,Void>() {
             @Override
             protected Void doInBackground(Void... none) {
                 if (!p.random.delay(p.running)) return null;
 
-                String STATISTICS_URL = new CachedRetriever(p.context).get(
-                        BuildConfig.API_URL_SOURCE, BuildConfig.API_URL_DEFAULT,
-                        CachedRetriever.Type.URL
-                ) + BuildConfig.API_REL_STATISTICS;
+                String STATISTICS_URL = new CachedRetriever(p.context)
+                        .staleWhileRevalidate(true)
+                        .get(BuildConfig.API_URL_SOURCE, BuildConfig.API_URL_DEFAULT,
+                                CachedRetriever.Type.URL
+                        ) + BuildConfig.API_REL_STATISTICS;
 
                 try {
                     new OkHttp(p.context).post(STATISTICS_URL, params);
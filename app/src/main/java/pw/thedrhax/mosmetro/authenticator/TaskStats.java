@@ -0,0 +1,137 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import org.json.simple.JSONObject;
+
+import pw.thedrhax.mosmetro.httpclient.Client;
+import pw.thedrhax.util.Randomizer;
+
+/**
+ * Execution statistics of a single Task collected by Provider.start().
+ *
+ * Requests are counted from all threads while the Task is running (including
+ * resource loading and asynchronous requests). Random delays are counted only
+ * for the thread running the Task.
+ *
+ * @see Provider.ITaskListener
+ */
+public class TaskStats implements Client.RequestListener {
+    private final String task;
+
+    private long start = 0;
+    private long delay_start = 0;
+
+    private long time = 0;
+    private long delay_time = 0;
+    private long network_time = 0;
+    private int requests = 0;
+    private int failures = 0;
+    private int retries = 0;
+
+    /**
+     * @param task Name of the Task class. It is captured together with the
+     *             statistics, because tasks may be replaced or inserted while
+     *             the Provider is running.
+     */
+    TaskStats(String task) {
+        this.task = task;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    void start() {
+        start = System.currentTimeMillis();
+        delay_start = Randomizer.getDelayTime();
+    }
+
+    synchronized void stop() {
+        time = System.currentTimeMillis() - start;
+        delay_time = Randomizer.getDelayTime() - delay_start;
+    }
+
+    @Override
+    public synchronized void onRequest(Client.METHOD method, String url, int code, long bytes,
+                                       long latency, boolean intercepted) {
+        requests++;
+        network_time += latency;
+        if (code == 0) failures++;
+    }
+
+    @Override
+    public synchronized void onRetry(String url, int attempt) {
+        retries++;
+    }
+
+    /**
+     * @return Wall time of the Task, ms.
+     */
+    public synchronized long getTime() {
+        return time;
+    }
+
+    /**
+     * @return Time spent sleeping in Randomizer.delay(), ms.
+     */
+    public synchronized long getDelayTime() {
+        return delay_time;
+    }
+
+    /**
+     * @return Sum of latencies of all requests, ms. Parallel requests may
+     *         make it greater than getTime().
+     */
+    public synchronized long getNetworkTime() {
+        return network_time;
+    }
+
+    public synchronized int getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return Number of requests that failed without a response.
+     */
+    public synchronized int getFailureCount() {
+        return failures;
+    }
+
+    public synchronized int getRetryCount() {
+        return retries;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject result = new JSONObject();
+        result.put("task", task);
+        result.put("time", time);
+        result.put("delay", delay_time);
+        result.put("network", network_time);
+        result.put("requests", requests);
+        result.put("failures", failures);
+        result.put("retries", retries);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return toJSON().toJSONString();
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.authenticator;
+
+import android.content.Context;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import pw.thedrhax.mosmetro.httpclient.Client;
+
+/**
+ * Structured record of one Provider.start() run.
+ *
+ * Every run is stored as a single JSON object per line in FILENAME:
+ *
+ * {"v":1, "provider":"MosMetroV2", "start":<unix ms>, "duration":<ms>, "result":"CONNECTED",
+ *  "tasks":    [{"i":0, "c":"MosMetroV2$1", "n":"...", "s":<ms>, "e":<ms>, "ok":true,
+ *                "r":<retries>, "d":<delay ms>}, ...],
+ *  "requests": [{"t":0, "m":"GET", "u":"http://host/path", "c":200, "b":<bytes>,
+ *                "s":<ms>, "l":<ms>, "x":false}, ...]}
+ *
+ * Times "s" and "e" are offsets from the start of the run. Query strings are
+ * removed from URLs because they may contain personal data (MAC address etc).
+ *
+ * Traces can be analyzed offline with TraceAnalyzer from the simulator module.
+ */
+public class Trace implements Client.RequestListener, Provider.ITaskListener {
+    public static final String FILENAME = "traces.jsonl";
+    private static final long MAX_SIZE = 256 * 1024; // bytes
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Single background thread, so traces are written in order and never
+    // delay the end of Provider.start()
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+    );
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final long start = System.currentTimeMillis();
+    private final JSONObject root = new JSONObject();
+    private final JSONArray tasks = new JSONArray();
+    private final JSONArray requests = new JSONArray();
+
+    private JSONObject current_task = null;
+    private int current_index = -1;
+
+    public Trace(String provider) {
+        root.put("v", 1);
+        root.put("provider", provider);
+        root.put("start", start);
+        root.put("tasks", tasks);
+        root.put("requests", requests);
+    }
+
+    private long offset() {
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Get the name of Task that doesn't depend on the language of the UI.
+     */
+    static String getTaskClass(Task task) {
+        String name = task.getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    @Override
+    public synchronized void onTaskStart(int index, Task task) {
+        current_index = index;
+        current_task = new JSONObject();
+        current_task.put("i", index);
+        current_task.put("c", getTaskClass(task));
+        if (task instanceof NamedTask) {
+            current_task.put("n", ((NamedTask) task).getName());
+        }
+        current_task.put("s", offset());
+        tasks.add(current_task);
+    }
+
+    @Override
+    public synchronized void onTaskEnd(int index, Task task, TaskStats stats, boolean success) {
+        if (current_task == null) return;
+
+        current_task.put("r", stats.getRetryCount());
+        current_task.put("d", stats.getDelayTime());
+        endTask(success);
+    }
+
+    private void endTask(boolean success) {
+        if (current_task == null) return;
+
+        current_task.put("e", offset());
+        current_task.put("ok", success);
+        current_task = null;
+    }
+
+    @Override
+    public synchronized void onRequest(Client.METHOD method, String url, int code, long bytes,
+                                       long latency, boolean intercepted) {
+        JSONObject request = new JSONObject();
+        request.put("t", current_index);
+        request.put("m", method.name());
+        request.put("u", url.contains("?") ? url.substring(0, url.indexOf('?')) : url);
+        request.put("c", code);
+        request.put("b", bytes);
+        request.put("s", offset() - latency);
+        request.put("l", latency);
+        request.put("x", intercepted);
+        requests.add(request);
+    }
+
+    @Override
+    public void onRetry(String url, int attempt) {
+        // Retries are counted per Task by TaskStats
+    }
+
+    public synchronized void finish(Provider.RESULT result) {
+        endTask(false);
+        root.put("duration", offset());
+        root.put("result", result.name());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return root.toJSONString();
+    }
+
+    /**
+     * Append this trace to the trace file in background. The oldest half of
+     * traces is removed when the file exceeds MAX_SIZE.
+     */
+    public void save(Context context) {
+        final File file = new File(context.getFilesDir(), FILENAME);
+        final String line = toString();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, line);
+            }
+        });
+    }
+
+    private static void write(File file, String line) {
+        try {
+            if (file.length() + line.length() > MAX_SIZE) {
+                List<String> lines = read(file);
+                lines = lines.subList(lines.size() / 2, lines.size());
+
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, false), UTF_8)) {
+                    for (String old : lines) {
+                        writer.write(old + '\n');
+                    }
+                }
+            }
+
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8)) {
+                writer.write(line + '\n');
+            }
+        } catch (IOException ignored) {}
+    }
+
+    private static List<String> read(File file) throws IOException {
+        List<String> result = new LinkedList<>();
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) result.add(line);
+            }
+        }
+
+        return result;
+    }
+}
@@ -20,10 +20,10 @@ package pw.thedrhax.mosmetro.authenticator.providers;
 
 import android.content.Context;
 
-import java.text.ParseException;
 import java.util.HashMap;
 
 import pw.thedrhax.mosmetro.R;
+import pw.thedrhax.mosmetro.authenticator.DetectionRule;
 import pw.thedrhax.mosmetro.authenticator.Provider;
 import pw.thedrhax.mosmetro.authenticator.Task;
 import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
@@ -54,16 +54,17 @@ public class Enforta extends Provider {
         });
     }
 
+    /**
+     * Rule used by Provider.find() to detect this Provider.
+     */
+    public static final DetectionRule RULE = DetectionRule.metaRedirect().contains("enforta");
+
     /**
      * Checks if current network is supported by this Provider implementation.
      * @param response  Instance of ParsedResponse.
      * @return          True if response matches this Provider implementation.
      */
     public static boolean match(ParsedResponse response) {
-        try {
-            return response.parseMetaRedirect().contains("enforta");
-        } catch (ParseException ex) {
-            return false;
-        }
+        return RULE.match(response);
     }
 }
@@ -25,6 +25,7 @@ import java.text.ParseException;
 import java.util.HashMap;
 
 import pw.thedrhax.mosmetro.R;
+import pw.thedrhax.mosmetro.authenticator.DetectionRule;
 import pw.thedrhax.mosmetro.authenticator.InitialConnectionCheckTask;
 import pw.thedrhax.mosmetro.authenticator.NamedTask;
 import pw.thedrhax.mosmetro.authenticator.Provider;
@@ -98,7 +99,12 @@ public class MAInet extends Provider {
                         put("password", password);
                     }}, pref_retry_count);
 
-                    Logger.log(Logger.LEVEL.DEBUG, response.toString());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.toString();
+                        }
+                    });
                 } catch (IOException ex) {
                     Logger.log(Logger.LEVEL.DEBUG, ex);
                     Logger.log(context.getString(R.string.error,
@@ -131,16 +137,17 @@ public class MAInet extends Provider {
         });
     }
 
+    /**
+     * Rule used by Provider.find() to detect this Provider.
+     */
+    public static final DetectionRule RULE = DetectionRule.redirect().contains("wifi.mai.ru");
+
     /**
      * Checks if current network is supported by this Provider implementation.
      * @param response  Instance of ParsedResponse.
      * @return          True if response matches this Provider implementation.
      */
     public static boolean match(ParsedResponse response) {
-        try {
-            return response.parseAnyRedirect().contains("wifi.mai.ru");
-        } catch (ParseException ex1) {
-            return false;
-        }
+        return RULE.match(response);
     }
 }
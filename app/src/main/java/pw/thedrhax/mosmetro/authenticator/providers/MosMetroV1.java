@@ -27,6 +27,7 @@ import java.text.ParseException;
 import java.util.HashMap;
 
 import pw.thedrhax.mosmetro.R;
+import pw.thedrhax.mosmetro.authenticator.DetectionRule;
 import pw.thedrhax.mosmetro.authenticator.InitialConnectionCheckTask;
 import pw.thedrhax.mosmetro.authenticator.NamedTask;
 import pw.thedrhax.mosmetro.authenticator.Provider;
@@ -85,7 +86,12 @@ public class MosMetroV1 extends Provider {
 
                 try {
                     response = client.get(redirect, null, pref_retry_count);
-                    Logger.log(Logger.LEVEL.DEBUG, response.getPageContent().outerHtml());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.getPageContent().outerHtml();
+                        }
+                    });
                 } catch (IOException ex) {
                     Logger.log(Logger.LEVEL.DEBUG, ex);
                     Logger.log(context.getString(R.string.error,
@@ -148,16 +154,17 @@ public class MosMetroV1 extends Provider {
         });
     }
 
+    /**
+     * Rule used by Provider.find() to detect this Provider.
+     */
+    public static final DetectionRule RULE = DetectionRule.redirect().contains("login.wi-fi.ru");
+
     /**
      * Checks if current network is supported by this Provider implementation.
      * @param response  Instance of ParsedResponse.
      * @return          True if response matches this Provider implementation.
      */
     public static boolean match(ParsedResponse response) {
-        try {
-            return response.parseAnyRedirect().contains("login.wi-fi.ru");
-        } catch (ParseException ex) {
-            return false;
-        }
+        return RULE.match(response);
     }
 }
@@ -34,11 +34,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 import pw.thedrhax.mosmetro.R;
+import pw.thedrhax.mosmetro.authenticator.DetectionRule;
 import pw.thedrhax.mosmetro.authenticator.InitialConnectionCheckTask;
 import pw.thedrhax.mosmetro.authenticator.InterceptorTask;
 import pw.thedrhax.mosmetro.authenticator.NamedTask;
 import pw.thedrhax.mosmetro.authenticator.Provider;
 import pw.thedrhax.mosmetro.authenticator.Task;
+import pw.thedrhax.mosmetro.httpclient.AsyncResponse;
 import pw.thedrhax.mosmetro.httpclient.Client;
 import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
 import pw.thedrhax.util.Logger;
@@ -132,7 +134,12 @@ public class MosMetroV2 extends Provider {
                     }
 
                     ParsedResponse response = client.get(redirect, null, pref_retry_count);
-                    Logger.log(Logger.LEVEL.DEBUG, response.getPageContent().outerHtml());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.getPageContent().outerHtml();
+                        }
+                    });
                     return true;
                 } catch (IOException | ParseException ex) {
                     Logger.log(Logger.LEVEL.DEBUG, ex);
@@ -155,7 +162,12 @@ public class MosMetroV2 extends Provider {
             public ParsedResponse request(Client client, Client.METHOD method, String url, Map<String, String> params) throws IOException {
                 client.followRedirects(false);
                 ParsedResponse response = client.get(url, null, pref_retry_count);
-                Logger.log(Logger.LEVEL.DEBUG, response.toString());
+                Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                    @Override
+                    public String get() {
+                        return response.toString();
+                    }
+                });
                 client.followRedirects(true);
                 return response;
             }
@@ -195,7 +207,12 @@ public class MosMetroV2 extends Provider {
                     Logger.log(Logger.LEVEL.DEBUG, "CSRF token: " + csrf_token);
                     client.setHeader(Client.HEADER_CSRF, csrf_token);
                 } catch (ParseException ex) {
-                    Logger.log(Logger.LEVEL.DEBUG, response.toString());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.toString();
+                        }
+                    });
                     Logger.log(Logger.LEVEL.DEBUG, ex);
                 }
 
@@ -215,10 +232,19 @@ public class MosMetroV2 extends Provider {
             public boolean run(HashMap<String, Object> vars) {
                 redirect = ParsedResponse.removePathFromUrl(redirect);
 
-                String prefix = "0:" + random.string(8) + ":";
-                client.setCookie("http://auth.wi-fi.ru", "_ym_uid", random.string("0123456789", 19))
-                      .setCookie("http://auth.wi-fi.ru", "_mts", prefix + random.string(11) + "~" + random.string(20))
-                      .setCookie("http://auth.wi-fi.ru", "_mtp", prefix + random.string(21) + "_" + random.string(10));
+                // Analytics cookies are kept while they are stored by the Client
+                Map<String,String> cookies = client.getCookies("http://auth.wi-fi.ru");
+
+                if (!cookies.containsKey("_ym_uid")) {
+                    client.setCookie("http://auth.wi-fi.ru", "_ym_uid", random.string("0123456789", 19));
+                }
+
+                if (!cookies.containsKey("_mts") || !cookies.containsKey("_mtp")) {
+                    String prefix = "0:" + random.string(8) + ":";
+                    client.setCookie("http://auth.wi-fi.ru", "_mts", prefix + random.string(11) + "~" + random.string(20))
+                          .setCookie("http://auth.wi-fi.ru", "_mtp", prefix + random.string(21) + "_" + random.string(10));
+                }
+
                 try {
                     ParsedResponse response = client.get(
                             redirect + "/auth?segment=" + vars.get("segment"),
@@ -238,7 +264,7 @@ public class MosMetroV2 extends Provider {
         });
 
         /**
-         * Setting auth token
+         * Setting auth token (in background, awaited before sending login form)
          * ⇒ GET http://auth.wi-fi.ru/auth/set_token?token= < random.string(6)
          * ⇐ 200 OK
          */
@@ -248,14 +274,24 @@ public class MosMetroV2 extends Provider {
                 String token = new Randomizer(context).string(6);
                 Logger.log(Logger.LEVEL.DEBUG, "Trying to set auth token: " + token);
 
-                try {
-                    ParsedResponse response = client.get(
-                            redirect + "/auth/set_token?token=" + token, null
-                    );
-                    Logger.log(Logger.LEVEL.DEBUG, response.getPageContent().outerHtml());
-                } catch (IOException ex) {
-                    Logger.log(Logger.LEVEL.DEBUG, ex);
-                }
+                vars.put("set_token", client.getAsync(
+                        redirect + "/auth/set_token?token=" + token, null
+                ).then(new AsyncResponse.Callback() {
+                    @Override
+                    public void onResponse(ParsedResponse response) {
+                        Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                            @Override
+                            public String get() {
+                                return response.getPageContent().outerHtml();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(IOException ex) {
+                        Logger.log(Logger.LEVEL.DEBUG, ex);
+                    }
+                }));
                 return true;
             }
         });
@@ -278,13 +314,24 @@ public class MosMetroV2 extends Provider {
         add(new NamedTask(context.getString(R.string.auth_auth_form)) {
             @Override
             public boolean run(HashMap<String, Object> vars) {
+                if (vars.containsKey("set_token")) {
+                    try {
+                        ((AsyncResponse) vars.get("set_token")).await();
+                    } catch (IOException ignored) {}
+                }
+
                 try {
                     ParsedResponse response = client.post(
                             redirect + "/auth/init?mode=0&segment=" + vars.get("segment"),
                             null, pref_retry_count
                     );
                     vars.put("response", response);
-                    Logger.log(Logger.LEVEL.DEBUG, response.getPageContent().outerHtml());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.getPageContent().outerHtml();
+                        }
+                    });
                 } catch (ProtocolException ignored) { // Too many follow-up requests
                 } catch (IOException ex) {
                     Logger.log(Logger.LEVEL.DEBUG, ex);
@@ -327,20 +374,18 @@ public class MosMetroV2 extends Provider {
         });
     }
 
+    /**
+     * Rule used by Provider.find() to detect this Provider.
+     */
+    public static final DetectionRule RULE = DetectionRule.redirect()
+            .contains(".wi-fi.ru").excludes("login.wi-fi.ru");
+
     /**
      * Checks if current network is supported by this Provider implementation.
      * @param response  Instance of ParsedResponse.
      * @return          True if response matches this Provider implementation.
      */
     public static boolean match(ParsedResponse response) {
-        String redirect;
-
-        try {
-            redirect = response.parseAnyRedirect();
-        } catch (ParseException ex) {
-            return false;
-        }
-
-        return redirect.contains(".wi-fi.ru") && !redirect.contains("login.wi-fi.ru");
+        return RULE.match(response);
     }
 }
@@ -21,14 +21,13 @@ package pw.thedrhax.mosmetro.authenticator.providers;
 import android.content.Context;
 import android.net.Uri;
 
-import org.jsoup.nodes.Element;
-
 import java.io.IOException;
 import java.net.ProtocolException;
 import java.text.ParseException;
 import java.util.HashMap;
 
 import pw.thedrhax.mosmetro.R;
+import pw.thedrhax.mosmetro.authenticator.DetectionRule;
 import pw.thedrhax.mosmetro.authenticator.InitialConnectionCheckTask;
 import pw.thedrhax.mosmetro.authenticator.InterceptorTask;
 import pw.thedrhax.mosmetro.authenticator.NamedTask;
@@ -111,7 +110,12 @@ public class MosMetroV2mcc extends Provider {
                     ParsedResponse response = client.get(redirect, null, pref_retry_count);
 
                     redirect = response.get300Redirect();
-                    Logger.log(Logger.LEVEL.DEBUG, response.toString());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.toString();
+                        }
+                    });
 
                     provider = Provider.find(context, response);
                 } catch (IOException|ParseException ex) {
@@ -170,7 +174,12 @@ public class MosMetroV2mcc extends Provider {
                     }}, pref_retry_count);
 
                     client.followRedirects(true);
-                    Logger.log(Logger.LEVEL.DEBUG, response.toString());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.toString();
+                        }
+                    });
                 } catch (IOException ex) {
                     Logger.log(Logger.LEVEL.DEBUG, ex);
                     Logger.log(context.getString(R.string.error,
@@ -214,7 +223,12 @@ public class MosMetroV2mcc extends Provider {
                     ParsedResponse response = client.get(redirect, null, pref_retry_count);
 
                     redirect = response.get300Redirect();
-                    Logger.log(Logger.LEVEL.DEBUG, response.toString());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.toString();
+                        }
+                    });
 
                     return false;
                 } catch (IOException ex) {
@@ -251,20 +265,18 @@ public class MosMetroV2mcc extends Provider {
         });
     }
 
+    /**
+     * Rule used by Provider.find() to detect this Provider.
+     */
+    public static final DetectionRule RULE = DetectionRule.locationRedirect()
+            .contains("/www/login.chi").heading("Browser error!");
+
     /**
      * Checks if current network is supported by this Provider implementation.
      * @param response  Instance of ParsedResponse.
      * @return          True if response matches this Provider implementation.
      */
     public static boolean match(ParsedResponse response) {
-        Element el = response.getPageContent().getElementsByTag("h2").first();
-
-        try {
-            if (response.get300Redirect().contains("/www/login.chi"))
-                if (el != null && "Browser error!".equals(el.html()))
-                    return true;
-        } catch (ParseException ignored) {}
-
-        return false;
+        return RULE.match(response);
     }
 }
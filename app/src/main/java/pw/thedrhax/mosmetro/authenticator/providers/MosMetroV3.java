@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import pw.thedrhax.mosmetro.R;
+import pw.thedrhax.mosmetro.authenticator.DetectionRule;
 import pw.thedrhax.mosmetro.authenticator.InitialConnectionCheckTask;
 import pw.thedrhax.mosmetro.authenticator.NamedTask;
 import pw.thedrhax.mosmetro.authenticator.Provider;
@@ -96,7 +97,12 @@ public class MosMetroV3 extends Provider {
                     params.put("client_mac", (String)vars.get("mac"));
 
                     response = client.get(redirect, params, pref_retry_count);
-                    Logger.log(Logger.LEVEL.DEBUG, response.getPageContent().outerHtml());
+                    Logger.log(Logger.LEVEL.DEBUG, new Logger.Supplier() {
+                        @Override
+                        public String get() {
+                            return response.getPageContent().outerHtml();
+                        }
+                    });
                 } catch (IOException ex) {
                     Logger.log(Logger.LEVEL.DEBUG, ex);
                     Logger.log(context.getString(R.string.error,
@@ -255,20 +261,17 @@ public class MosMetroV3 extends Provider {
         });
     }
 
+    /**
+     * Rule used by Provider.find() to detect this Provider.
+     */
+    public static final DetectionRule RULE = DetectionRule.redirect().contains("welcome.wi-fi.ru");
+
     /**
      * Checks if current network is supported by this Provider implementation.
      * @param response  Instance of ParsedResponse.
      * @return          True if response matches this Provider implementation.
      */
     public static boolean match(ParsedResponse response) {
-        String redirect;
-
-        try {
-            redirect = response.parseAnyRedirect();
-        } catch (ParseException ex) {
-            return false;
-        }
-
-        return redirect.contains("welcome.wi-fi.ru");
+        return RULE.match(response);
     }
 }
@@ -0,0 +1,180 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous request made by Client.
+ *
+ * Can be used as a Future or with callbacks. Callbacks are called by the thread
+ * that completes the request, or immediately if it is already completed.
+ *
+ * @see Client#getAsync(String, java.util.Map)
+ */
+public class AsyncResponse implements Future<ParsedResponse> {
+    public interface Callback {
+        void onResponse(ParsedResponse response);
+        void onFailure(IOException ex);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Callback> callbacks = new LinkedList<>();
+
+    private ParsedResponse response = null;
+    private IOException error = null;
+    private boolean cancelled = false;
+    private Runnable canceller = null;
+
+    // Methods below are used by Client implementations
+
+    public AsyncResponse() {}
+
+    /**
+     * Set the action that interrupts the request in progress.
+     */
+    public synchronized void setCanceller(Runnable canceller) {
+        this.canceller = canceller;
+    }
+
+    public void complete(ParsedResponse response) {
+        finish(response, null);
+    }
+
+    public void fail(IOException ex) {
+        finish(null, ex);
+    }
+
+    private void finish(ParsedResponse response, IOException error) {
+        List<Callback> callbacks;
+
+        synchronized (this) {
+            if (isDone()) return;
+
+            this.response = response;
+            this.error = error;
+            done.countDown();
+
+            callbacks = new LinkedList<>(this.callbacks);
+            this.callbacks.clear();
+        }
+
+        for (Callback callback : callbacks) {
+            dispatch(callback);
+        }
+    }
+
+    private void dispatch(Callback callback) {
+        if (error != null) {
+            callback.onFailure(error);
+        } else {
+            callback.onResponse(response);
+        }
+    }
+
+    /**
+     * Subscribe to the result of this request.
+     */
+    public AsyncResponse then(@NonNull Callback callback) {
+        synchronized (this) {
+            if (!isDone()) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+
+        dispatch(callback);
+        return this;
+    }
+
+    /**
+     * Wait for the request to complete. Behaves like synchronous Client methods.
+     * @throws IOException  Error of the request or InterruptedIOException if the
+     *                      request was cancelled or the thread was interrupted.
+     */
+    @NonNull
+    public ParsedResponse await() throws IOException {
+        try {
+            done.await();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+
+        if (error != null) throw error;
+        return response;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Runnable canceller;
+
+        synchronized (this) {
+            if (isDone()) return false;
+            cancelled = true;
+            canceller = this.canceller;
+        }
+
+        if (canceller != null) {
+            canceller.run();
+        }
+
+        fail(new InterruptedIOException("Request cancelled"));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public ParsedResponse get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public ParsedResponse get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private ParsedResponse result() throws ExecutionException {
+        if (error != null) throw new ExecutionException(error);
+        return response;
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent storage of CachedRetriever entries.
+ *
+ * Every entry is stored in a separate file named by the hash of its URL. The
+ * index (URL → timestamp, file) is kept in memory, so lookups don't touch the
+ * disk and writes only rewrite one small file. Entries older than MAX_AGE are
+ * dropped, and the oldest ones are evicted when MAX_SIZE is exceeded.
+ *
+ * File format: timestamp (seconds) \n URL \n content
+ *
+ * @see CachedRetriever
+ */
+class CacheStore {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long MAX_AGE = 30*24*60*60; // seconds
+    private static final long MAX_SIZE = 512 * 1024; // bytes
+
+    private static CacheStore instance = null;
+
+    private final File dir;
+    private final Map<String,Entry> index = new HashMap<>();
+    private long size = 0;
+
+    static class Entry {
+        final String url;
+        final long timestamp;
+        final File file;
+        final long length;
+
+        Entry(String url, long timestamp, File file) {
+            this.url = url;
+            this.timestamp = timestamp;
+            this.file = file;
+            this.length = file.length();
+        }
+    }
+
+    @NonNull
+    static synchronized CacheStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new CacheStore(context);
+        }
+        return instance;
+    }
+
+    private CacheStore(Context context) {
+        dir = new File(context.getFilesDir(), "retriever");
+        if (!dir.exists()) dir.mkdirs();
+
+        // Drop the legacy JSON blob from SharedPreferences
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit().remove("CachedRetriever").apply();
+
+        load();
+    }
+
+    private static long getTimestamp() {
+        return System.currentTimeMillis() / 1000L;
+    }
+
+    @NonNull
+    private static String hash(String url) {
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8))) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * Build the index by reading headers of all entry files.
+     */
+    private void load() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        long now = getTimestamp();
+
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), UTF_8))) {
+                long timestamp = Long.parseLong(reader.readLine());
+                String url = reader.readLine();
+
+                if (url == null || timestamp + MAX_AGE < now) {
+                    throw new IOException("Expired or broken entry");
+                }
+
+                Entry entry = new Entry(url, timestamp, file);
+                index.put(url, entry);
+                size += entry.length;
+            } catch (IOException | NumberFormatException ex) {
+                file.delete();
+            }
+        }
+
+        trim();
+    }
+
+    /**
+     * Evict the oldest entries until the total size fits into MAX_SIZE.
+     */
+    private void trim() {
+        if (size <= MAX_SIZE) return;
+
+        List<Entry> entries = new ArrayList<>(index.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(a.timestamp, b.timestamp);
+            }
+        });
+
+        for (Entry entry : entries) {
+            if (size <= MAX_SIZE) break;
+            remove(entry.url);
+        }
+    }
+
+    @Nullable
+    synchronized Entry find(String url) {
+        return index.get(url);
+    }
+
+    /**
+     * Read content of the entry from disk.
+     * @return Content or null if the entry is not available anymore.
+     */
+    @Nullable
+    synchronized String read(Entry entry) {
+        StringBuilder result = new StringBuilder();
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(entry.file), UTF_8))) {
+            reader.readLine(); // timestamp
+            reader.readLine(); // url
+
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                result.append(buffer, 0, count);
+            }
+        } catch (IOException ex) {
+            if (index.get(entry.url) == entry) {
+                remove(entry.url);
+            }
+            return null;
+        }
+
+        return result.toString();
+    }
+
+    synchronized void write(String url, String content) {
+        File file = new File(dir, hash(url));
+        File temp = new File(dir, file.getName() + ".tmp");
+        long timestamp = getTimestamp();
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF_8)) {
+            writer.write(timestamp + "\n" + url + "\n" + content);
+        } catch (IOException ex) {
+            temp.delete();
+            return;
+        }
+
+        remove(url);
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+
+        Entry entry = new Entry(url, timestamp, file);
+        index.put(url, entry);
+        size += entry.length;
+
+        trim();
+    }
+
+    synchronized void remove(String url) {
+        Entry entry = index.remove(url);
+        if (entry == null) return;
+
+        size -= entry.length;
+        entry.file.delete();
+    }
+}
@@ -19,96 +19,66 @@
 package pw.thedrhax.mosmetro.httpclient;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
+import android.os.AsyncTask;
+import android.support.annotation.Nullable;
 import android.util.Patterns;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import pw.thedrhax.mosmetro.httpclient.clients.OkHttp;
 import pw.thedrhax.util.Logger;
 
 public class CachedRetriever {
-    private SharedPreferences settings;
-    private JSONArray cache_storage;
+    /**
+     * Requests in progress by URL and Type. Concurrent calls for the same URL
+     * and Type wait for the single request instead of sending their own. Type is
+     * a part of the key, because the result is validated for it.
+     */
+    private static final ConcurrentMap<String,FutureTask<String>> in_flight =
+            new ConcurrentHashMap<>();
+
+    private CacheStore storage;
     private Client client;
+    private boolean stale_while_revalidate = false;
 
     public enum Type {
         URL, JSON
     }
 
     public CachedRetriever (Context context) {
-        this.settings = PreferenceManager.getDefaultSharedPreferences(context);
-
-        try {
-            cache_storage = (JSONArray)new JSONParser().parse(settings.getString("CachedRetriever", "[]"));
-        } catch (ParseException ex) {
-            cache_storage = new JSONArray();
-        }
-
+        storage = CacheStore.getInstance(context);
         client = new OkHttp(context);
     }
 
-    private long getTimestamp () {
-        return System.currentTimeMillis() / 1000L;
+    /**
+     * Return expired content immediately and refresh it in background.
+     * Content is retrieved synchronously only if there is nothing in cache.
+     */
+    public CachedRetriever staleWhileRevalidate(boolean enabled) {
+        this.stale_while_revalidate = enabled; return this;
     }
 
-    private JSONObject findCachedUrl (String url) {
-        for (Object object : cache_storage) {
-            JSONObject json = (JSONObject)object;
-
-            if (json.get("url").equals(url)) return json;
-        }
-        return null;
+    private long getTimestamp () {
+        return System.currentTimeMillis() / 1000L;
     }
 
     public void remove(String url) {
-        Collection<Object> remove = new LinkedList<Object>();
-        for (Object object : cache_storage)
-            if (((JSONObject)object).get("url").equals(url))
-                remove.add(object);
-        cache_storage.removeAll(remove);
-
-        // Write cache to preferences
-        settings.edit().putString("CachedRetriever", cache_storage.toString()).apply();
+        storage.remove(url);
     }
 
-    private void writeCachedUrl (String url, String content) {
-        // Remove old entries
-        remove(url);
-
-        // Create new entry
-        JSONObject result = new JSONObject();
-        result.put("url", url);
-        result.put("content", content);
-        result.put("timestamp", getTimestamp());
-
-        // Add entry to cache
-        cache_storage.add(result);
-
-        // Write cache to preferences
-        settings.edit().putString("CachedRetriever", cache_storage.toString()).apply();
-    }
-
-    public String get (String url, int ttl, String default_value, Type type) {
-        JSONObject cached_url = findCachedUrl(url);
-        String result = null;
-
-        // Get content from cache if it isn't expired
-        if (cached_url != null) {
-            long timestamp = (Long) cached_url.get("timestamp");
-            if (timestamp + ttl > getTimestamp())
-                return cached_url.get("content").toString();
-        }
-
-        // Try to retrieve content from server
+    /**
+     * Retrieve, validate and cache the content.
+     * @return Content or null on error.
+     */
+    @Nullable
+    private String retrieve (String url, Type type) {
         try {
             ParsedResponse response = client.get(url, null);
 
@@ -116,7 +86,7 @@ public class CachedRetriever {
                 throw new IOException("Invalid response: " + response.getResponseCode());
             }
 
-            result = response.getPage().trim();
+            String result = response.getPage().trim();
 
             // Validate answer
             if (type == Type.URL && !Patterns.WEB_URL.matcher(result).matches()) {
@@ -127,16 +97,78 @@ public class CachedRetriever {
             }
 
             // Write new content to cache
-            writeCachedUrl(url, result);
+            storage.write(url, result);
+            return result;
         } catch (Exception ex) {  // Exception type doesn't matter here
             Logger.log(this, ex.toString());
+            return null;
+        }
+    }
 
-            // Get expired cache if can't retrieve content
-            if (cached_url != null) {
-                result = cached_url.get("content").toString();
-            } else {
-                result = null;
+    /**
+     * Coalesced version of retrieve(): only one request per URL and Type is sent at a time.
+     */
+    @Nullable
+    private String fetch (final String url, final Type type) {
+        FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return retrieve(url, type);
+            }
+        });
+
+        String key = type + " " + url;
+        FutureTask<String> current = in_flight.putIfAbsent(key, task);
+        if (current == null) {
+            try {
+                task.run();
+            } finally {
+                in_flight.remove(key, task);
             }
+            current = task;
+        } else {
+            Logger.log(this, "Waiting for request in progress: " + url);
+        }
+
+        try {
+            return current.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            return null;
+        }
+    }
+
+    public String get (final String url, int ttl, String default_value, final Type type) {
+        CacheStore.Entry cached_url = storage.find(url);
+        String result = null;
+
+        if (cached_url != null) {
+            result = storage.read(cached_url);
+        }
+
+        if (result != null) {
+            // Get content from cache if it isn't expired
+            if (cached_url.timestamp + ttl > getTimestamp()) {
+                return result;
+            }
+
+            // Return expired content and refresh it in background
+            if (stale_while_revalidate) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fetch(url, type);
+                    }
+                });
+                return result;
+            }
+        }
+
+        // Try to retrieve content from server
+        String content = fetch(url, type);
+
+        // Get expired cache if can't retrieve content
+        if (content != null) {
+            result = content;
         }
 
         return result != null ? result : default_value;
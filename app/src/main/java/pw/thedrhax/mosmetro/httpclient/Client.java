@@ -25,10 +25,15 @@ import android.support.annotation.NonNull;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.net.ssl.SSLException;
 
@@ -50,9 +55,40 @@ public abstract class Client {
     public static final String HEADER_CONTENT_TYPE = "Content-Type";
     public static final String HEADER_UPGRADE_INSECURE_REQUESTS = "Upgrade-Insecure-Requests";
 
-    public final List<InterceptorTask> interceptors = new LinkedList<>();
+    public final InterceptorRouter interceptors = new InterceptorRouter();
+
+    /**
+     * Receives information about every request sent by this Client.
+     */
+    public interface RequestListener {
+        /**
+         * @param method        Request method.
+         * @param url           Requested URL (with query string).
+         * @param code          Response code or 0 if request has failed.
+         * @param bytes         Size of the received response body.
+         * @param latency       Time between sending the request and parsing the response, ms.
+         * @param intercepted   True if request was made by or for an InterceptorTask.
+         */
+        void onRequest(METHOD method, String url, int code, long bytes, long latency,
+                       boolean intercepted);
+
+        /**
+         * Called before the request is repeated by one of retrying methods.
+         * @param url       Requested URL.
+         * @param attempt   Number of the upcoming attempt, starting from 2.
+         */
+        void onRetry(String url, int attempt);
+    }
+
+    private final List<RequestListener> request_listeners = new CopyOnWriteArrayList<>();
 
-    private boolean intercepting = false;
+    // Interceptors are disabled for nested requests made by the same thread
+    private final ThreadLocal<Boolean> intercepting = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
     protected Map<String,String> headers;
     protected Context context;
     protected Randomizer random;
@@ -61,7 +97,7 @@ public abstract class Client {
 
     protected Client(Context context) {
         this.context = context;
-        this.headers = new HashMap<>();
+        this.headers = new ConcurrentHashMap<>();
         this.random = new Randomizer(context);
         this.settings = PreferenceManager.getDefaultSharedPreferences(context);
     }
@@ -96,22 +132,84 @@ public abstract class Client {
         }
     }
 
+    /**
+     * Check if URL points to a static resource (stylesheet, script, font, image, video).
+     * Such resources may be cached between connections.
+     */
+    protected static boolean isStaticResource(String url) {
+        String path = url.contains("?") ? url.substring(0, url.indexOf("?")) : url;
+
+        for (String ext : new String[] {".css", ".js", ".woff", ".woff2", ".ttf",
+                ".jpg", ".jpeg", ".gif", ".png", ".svg", ".ico", ".mp4"}) {
+            if (path.endsWith(ext)) return true;
+        }
+
+        return false;
+    }
+
+    // URLs requested by ResourceLoader
+    private final Set<String> resources =
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    void beginResource(String url) {
+        resources.add(url);
+    }
+
+    void endResource(String url) {
+        resources.remove(url);
+    }
+
+    /**
+     * Check if URL is requested only to emulate the browser (static resource or
+     * a link loaded by ResourceLoader). Bodies of such responses are not needed.
+     */
+    protected boolean isResource(String url) {
+        return isStaticResource(url) || resources.contains(url);
+    }
+
     public Client setHeader (String name, String value) {
-        headers.put(name, value); return this;
+        if (value == null) {
+            headers.remove(name);
+        } else {
+            headers.put(name, value);
+        }
+        return this;
     }
 
     public String getHeader (String name) {
-        return headers.containsKey(name) ? headers.get(name) : null;
+        return headers.get(name);
     }
 
     public Client resetHeaders () {
-        headers = new HashMap<>(); return this;
+        headers = new ConcurrentHashMap<>(); return this;
     }
 
     public Client setDelaysEnabled(boolean enabled) {
         this.random_delays = enabled; return this;
     }
 
+    public Client addRequestListener(RequestListener listener) {
+        request_listeners.add(listener); return this;
+    }
+
+    public Client removeRequestListener(RequestListener listener) {
+        request_listeners.remove(listener); return this;
+    }
+
+    private void onRequest(METHOD method, String link, Map<String,String> params,
+                           ParsedResponse response, long start, boolean intercepted) {
+        if (request_listeners.isEmpty()) return;
+
+        String url = method == METHOD.GET ? link + requestToString(params) : link;
+        int code = response != null ? response.getResponseCode() : 0;
+        long bytes = response != null ? response.getBodySize() : 0;
+        long latency = System.currentTimeMillis() - start;
+
+        for (RequestListener listener : request_listeners) {
+            listener.onRequest(method, url, code, bytes, latency, intercepted);
+        }
+    }
+
     public abstract Client setCookie(String url, String name, String value);
     public abstract Map<String,String> getCookies(String url);
 
@@ -120,48 +218,142 @@ public abstract class Client {
     // IO methods
     protected abstract ParsedResponse request(METHOD method, String link, Map<String,String> params) throws IOException;
 
-    private ParsedResponse interceptedRequest(METHOD method, String link, Map<String,String> params) throws IOException {
-        InterceptorTask interceptor = null;
-        ParsedResponse response = null;
+    // Executor for interceptors and blocking parts of asynchronous requests
+    private static final ExecutorService async_executor = Executors.newCachedThreadPool();
+
+    /**
+     * Asynchronous version of request(). Default implementation runs request()
+     * in background thread. Implementations should complete or fail the result
+     * and set its canceller.
+     */
+    protected void requestAsync(final METHOD method, final String link,
+                                final Map<String,String> params, final AsyncResponse result) {
+        async_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.complete(request(method, link, params));
+                } catch (IOException ex) {
+                    result.fail(ex);
+                }
+            }
+        });
+    }
 
-        for (InterceptorTask i : interceptors) {
-            if (i.match(link) && !intercepting) {
-                interceptor = i;
+    private InterceptorTask findInterceptor(String link) {
+        if (intercepting.get()) return null;
+        return interceptors.find(link);
+    }
+
+    private ParsedResponse processResponse(String link, ParsedResponse response) {
+        if (response == null) {
+            return new ParsedResponse(link, "", 500, null);
+        }
+
+        String type = response.getResponseHeader(HEADER_CONTENT_TYPE.toLowerCase());
+
+        if (type != null && type.startsWith("text/html")) {
+            setHeader(Client.HEADER_REFERER, response.getURL());
+
+            if (settings.getBoolean("pref_load_resources", true)) {
+                response.loadResources(Client.this);
             }
         }
 
+        return response;
+    }
+
+    private ParsedResponse interceptedRequest(METHOD method, String link, Map<String,String> params) throws IOException {
+        InterceptorTask interceptor = findInterceptor(link);
+        ParsedResponse response = null;
+
         try {
             if (interceptor != null) {
-                intercepting = true;
+                intercepting.set(true);
                 response = interceptor.request(this, method, link, params);
             }
 
             if (response == null) {
-                response = request(method, link, params);
+                boolean intercepted = interceptor != null || intercepting.get();
+                long start = System.currentTimeMillis();
+                try {
+                    response = request(method, link, params);
+                } finally {
+                    onRequest(method, link, params, response, start, intercepted);
+                }
             }
 
             if (interceptor != null) {
                 response = interceptor.response(this, link, response);
             }
         } finally {
-            intercepting = false;
+            if (interceptor != null) {
+                intercepting.set(false);
+            }
         }
 
-        if (response == null) {
-            return new ParsedResponse(link, "", 500, null);
+        return processResponse(link, response);
+    }
+
+    private AsyncResponse interceptedRequestAsync(final METHOD method, final String link,
+                                                  final Map<String,String> params) {
+        final AsyncResponse result = new AsyncResponse();
+
+        if (!running.get()) {
+            result.fail(new InterruptedIOException());
+            return result;
         }
 
-        String type = response.getResponseHeader(HEADER_CONTENT_TYPE.toLowerCase());
+        final boolean nested = intercepting.get();
 
-        if (type != null && type.startsWith("text/html")) {
-            setHeader(Client.HEADER_REFERER, response.getURL());
+        // Interceptors are blocking, so the whole request is moved to background
+        if (findInterceptor(link) != null) {
+            async_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(interceptedRequest(method, link, params));
+                    } catch (IOException ex) {
+                        result.fail(ex);
+                    }
+                }
+            });
+            return result;
+        }
 
-            if (settings.getBoolean("pref_load_resources", true)) {
-                response.loadResources(Client.this);
+        final AsyncResponse raw = new AsyncResponse();
+        final long start = System.currentTimeMillis();
+
+        result.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                raw.cancel(true);
             }
-        }
+        });
 
-        return response;
+        raw.then(new AsyncResponse.Callback() {
+            @Override
+            public void onResponse(ParsedResponse response) {
+                onRequest(method, link, params, response, start, nested);
+
+                // Nested requests of this thread must not be intercepted as well
+                intercepting.set(nested);
+                try {
+                    result.complete(processResponse(link, response));
+                } finally {
+                    intercepting.set(false);
+                }
+            }
+
+            @Override
+            public void onFailure(IOException ex) {
+                onRequest(method, link, params, null, start, nested);
+                result.fail(ex);
+            }
+        });
+
+        requestAsync(method, link, params, raw);
+        return result;
     }
 
     public ParsedResponse get(String link, Map<String,String> params) throws IOException {
@@ -177,10 +369,24 @@ public abstract class Client {
         }});
     }
 
+    // Async methods
+    public AsyncResponse getAsync(String link, Map<String,String> params) {
+        return interceptedRequestAsync(METHOD.GET, link, params);
+    }
+    public AsyncResponse postAsync(String link, Map<String,String> params) {
+        return interceptedRequestAsync(METHOD.POST, link, params);
+    }
+    public AsyncResponse postAsync(String link, String type, String body) {
+        return interceptedRequestAsync(METHOD.POST_RAW, link, new HashMap<String,String>() {{
+            put("type", type);
+            put("body", body);
+        }});
+    }
+
     // Retry methods
     public ParsedResponse get(final String link, final Map<String,String> params,
                       int tries) throws IOException {
-        return new RetryOnException<ParsedResponse>() {
+        return new RetryOnException<ParsedResponse>(link) {
             @Override
             public ParsedResponse body() throws IOException {
                 if (random_delays) {
@@ -195,7 +401,7 @@ public abstract class Client {
 
     public ParsedResponse post(final String link, final Map<String,String> params,
                        int tries) throws IOException {
-        return new RetryOnException<ParsedResponse>() {
+        return new RetryOnException<ParsedResponse>(link) {
             @Override
             public ParsedResponse body() throws IOException {
                 if (random_delays) {
@@ -210,7 +416,7 @@ public abstract class Client {
 
     public ParsedResponse post(final String link, final String type, final String body,
                                int tries) throws IOException {
-        return new RetryOnException<ParsedResponse>() {
+        return new RetryOnException<ParsedResponse>(link) {
             @Override
             public ParsedResponse body() throws IOException {
                 if (random_delays) {
@@ -255,6 +461,12 @@ public abstract class Client {
     }
 
     private abstract class RetryOnException<T> {
+        private final String link;
+
+        RetryOnException(String link) {
+            this.link = link;
+        }
+
         T run(int tries) throws IOException {
             IOException last_ex;
 
@@ -278,6 +490,10 @@ public abstract class Client {
                             "Retrying request (try " + i + " out of " + tries + ")"
                     );
 
+                    for (RequestListener listener : request_listeners) {
+                        listener.onRetry(link, i);
+                    }
+
                     try {
                         return body();
                     } catch (IOException ex1) {
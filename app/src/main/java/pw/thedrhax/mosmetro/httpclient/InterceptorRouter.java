@@ -0,0 +1,258 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import pw.thedrhax.mosmetro.authenticator.InterceptorTask;
+
+/**
+ * Chooses the InterceptorTask for a URL without running every regex.
+ *
+ * The literal host and path prefix are extracted from the regex of every
+ * interceptor, e.g. "https?://auth\\.wi-fi\\.ru/auth(\\?.*)?" gives host
+ * "auth.wi-fi.ru" and path "/auth". Lookup selects interceptors by the exact
+ * host of the URL, filters them by the path prefix and only then runs
+ * the regex. Patterns without a literal host are checked for every URL.
+ *
+ * The most recently added interceptor has priority, like in the previous
+ * implementation where the last match won. The index is immutable and
+ * rebuilt on every change, so lookups don't need locks.
+ */
+public class InterceptorRouter {
+    private static final String[] SCHEMES = {
+            "https?://", "http://", "https://", "(https?)://", "(http|https)://",
+            "https?:\\/\\/", "http:\\/\\/", "https:\\/\\/"
+    };
+
+    private static class Route {
+        final InterceptorTask task;
+        final int order;
+        final String host; // null if pattern has no literal host
+        final String path;
+
+        Route(InterceptorTask task, int order) {
+            this.task = task;
+            this.order = order;
+
+            String prefix = literalPrefix(task.getRegex());
+            int slash = prefix != null ? prefix.indexOf('/') : -1;
+
+            if (slash > 0) {
+                host = prefix.substring(0, slash);
+                path = prefix.substring(slash);
+            } else {
+                host = null;
+                path = "";
+            }
+        }
+    }
+
+    private static class Index {
+        final Map<String,List<Route>> by_host = new HashMap<>();
+        final List<Route> other = new ArrayList<>();
+
+        Index(List<Route> routes) {
+            // Newest routes first
+            for (int i = routes.size() - 1; i >= 0; i--) {
+                Route route = routes.get(i);
+
+                if (route.host == null) {
+                    other.add(route);
+                    continue;
+                }
+
+                List<Route> list = by_host.get(route.host);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    by_host.put(route.host, list);
+                }
+                list.add(route);
+            }
+        }
+    }
+
+    private final List<Route> routes = new LinkedList<>();
+    private volatile Index index = new Index(Collections.<Route>emptyList());
+    private int counter = 0;
+
+    public synchronized boolean add(InterceptorTask task) {
+        if (contains(task)) return false;
+
+        routes.add(new Route(task, counter++));
+        index = new Index(routes);
+        return true;
+    }
+
+    public synchronized boolean remove(InterceptorTask task) {
+        for (Route route : routes) {
+            if (route.task == task) {
+                routes.remove(route);
+                index = new Index(routes);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean contains(InterceptorTask task) {
+        for (Route route : routes) {
+            if (route.task == task) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Interceptor with the highest priority that matches the URL,
+     *         or null if there is no such interceptor.
+     */
+    @Nullable
+    public InterceptorTask find(String url) {
+        Index index = this.index;
+
+        List<Route> other = index.other;
+        List<Route> by_host = null;
+        String rest = null;
+
+        if (!index.by_host.isEmpty()) {
+            int start = url.indexOf("://");
+            if (start != -1) {
+                start += 3;
+
+                int end = start;
+                while (end < url.length() && "/?#".indexOf(url.charAt(end)) == -1) {
+                    end++;
+                }
+
+                by_host = index.by_host.get(url.substring(start, end));
+                rest = url.substring(end);
+            }
+        }
+
+        if (by_host == null) {
+            if (other.isEmpty()) return null;
+            by_host = Collections.emptyList();
+        }
+
+        // Merge both lists by priority and return the first match
+        int i = 0, j = 0;
+        while (i < by_host.size() || j < other.size()) {
+            Route route;
+
+            if (j >= other.size() || (i < by_host.size() && by_host.get(i).order > other.get(j).order)) {
+                route = by_host.get(i++);
+                if (!rest.startsWith(route.path)) continue;
+            } else {
+                route = other.get(j++);
+            }
+
+            if (route.task.match(url)) {
+                return route.task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Extract the literal part of the regex that follows the scheme.
+     * @return Literal prefix or null if it can't be determined.
+     */
+    @Nullable
+    static String literalPrefix(String regex) {
+        if (regex == null) return null;
+
+        if (regex.startsWith("^")) regex = regex.substring(1);
+
+        // Alternative branches may start with anything
+        if (hasTopLevelAlternation(regex)) return null;
+
+        String rest = null;
+        for (String scheme : SCHEMES) {
+            if (regex.startsWith(scheme)) {
+                rest = regex.substring(scheme.length());
+                break;
+            }
+        }
+        if (rest == null) return null;
+
+        StringBuilder result = new StringBuilder();
+
+        int i = 0;
+        while (i < rest.length()) {
+            char c = rest.charAt(i);
+            char literal;
+            int next;
+
+            if (c == '\\') {
+                if (i + 1 >= rest.length()) break;
+                literal = rest.charAt(i + 1);
+                if (Character.isLetterOrDigit(literal)) break; // \d, \w, \Q, ...
+                next = i + 2;
+            } else if ("[](){}.*+?^$|".indexOf(c) != -1) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+
+            // Quantifier makes the last character optional
+            if (next < rest.length() && "?*{".indexOf(rest.charAt(next)) != -1) break;
+
+            result.append(literal);
+
+            if (next < rest.length() && rest.charAt(next) == '+') break;
+            i = next;
+        }
+
+        return result.toString();
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean in_class = false;
+
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i++;
+            } else if (in_class) {
+                if (c == ']') in_class = false;
+            } else if (c == '[') {
+                in_class = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
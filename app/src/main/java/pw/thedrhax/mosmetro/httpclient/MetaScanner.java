@@ -0,0 +1,163 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import android.support.annotation.Nullable;
+
+import org.jsoup.parser.Parser;
+
+/**
+ * Single-pass scanner that extracts <meta> tags from raw HTML without building
+ * the DOM. Contents of comments, <script> and <style> are skipped to match the
+ * results of Jsoup.
+ *
+ * @see ParsedResponse#parseMetaContent(String)
+ */
+final class MetaScanner {
+    private final String html;
+    private final int length;
+    private int pos = 0;
+
+    private MetaScanner(String html) {
+        this.html = html;
+        this.length = html.length();
+    }
+
+    /**
+     * Find content of the last <meta> tag with matching name or http-equiv attribute.
+     * @param html  Raw HTML page.
+     * @param name  Value of name or http-equiv attribute (case insensitive).
+     * @return      Value of content attribute or null if tag is not found.
+     */
+    @Nullable
+    static String find(String html, String name) {
+        return new MetaScanner(html).find(name);
+    }
+
+    @Nullable
+    private String find(String name) {
+        String result = null;
+
+        while ((pos = html.indexOf('<', pos)) != -1) {
+            pos++;
+
+            if (html.startsWith("!--", pos)) {
+                pos = skipTo("-->", pos + 3);
+            } else if (isTag("script")) {
+                pos = skipTo("</script", pos);
+            } else if (isTag("style")) {
+                pos = skipTo("</style", pos);
+            } else if (isTag("meta")) {
+                pos += 4;
+                String value = parseMeta(name);
+                if (value != null) result = value;
+            }
+        }
+
+        return result;
+    }
+
+    private boolean isTag(String tag) {
+        if (!html.regionMatches(true, pos, tag, 0, tag.length())) return false;
+        int end = pos + tag.length();
+        if (end >= length) return false;
+        char c = html.charAt(end);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private int skipTo(String marker, int from) {
+        int result = indexOfIgnoreCase(marker, from);
+        return result == -1 ? length : result + marker.length();
+    }
+
+    private int indexOfIgnoreCase(String marker, int from) {
+        for (int i = from; i <= length - marker.length(); i++) {
+            if (html.regionMatches(true, i, marker, 0, marker.length())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse attributes of the current <meta> tag. Stops after the closing '>'.
+     * @return Value of content attribute if tag matches the name, otherwise null.
+     */
+    @Nullable
+    private String parseMeta(String name) {
+        boolean matches = false;
+        String content = null;
+
+        while (pos < length) {
+            char c = html.charAt(pos);
+
+            if (c == '>') {
+                pos++;
+                break;
+            } else if (c == '/' || Character.isWhitespace(c)) {
+                pos++;
+                continue;
+            }
+
+            // Attribute name
+            int start = pos;
+            while (pos < length) {
+                c = html.charAt(pos);
+                if (c == '=' || c == '>' || c == '/' || Character.isWhitespace(c)) break;
+                pos++;
+            }
+            String attr = html.substring(start, pos);
+
+            while (pos < length && Character.isWhitespace(html.charAt(pos))) pos++;
+
+            // Attribute value
+            String value = "";
+            if (pos < length && html.charAt(pos) == '=') {
+                pos++;
+                while (pos < length && Character.isWhitespace(html.charAt(pos))) pos++;
+
+                if (pos < length && (html.charAt(pos) == '"' || html.charAt(pos) == '\'')) {
+                    char quote = html.charAt(pos++);
+                    int end = html.indexOf(quote, pos);
+                    if (end == -1) end = length;
+                    value = html.substring(pos, end);
+                    pos = Math.min(end + 1, length);
+                } else {
+                    start = pos;
+                    while (pos < length) {
+                        c = html.charAt(pos);
+                        if (c == '>' || Character.isWhitespace(c)) break;
+                        pos++;
+                    }
+                    value = html.substring(start, pos);
+                }
+
+                if (value.indexOf('&') != -1) {
+                    value = Parser.unescapeEntities(value, true);
+                }
+            }
+
+            if ("name".equalsIgnoreCase(attr) || "http-equiv".equalsIgnoreCase(attr)) {
+                matches |= name.equalsIgnoreCase(value);
+            } else if ("content".equalsIgnoreCase(attr)) {
+                content = value;
+            }
+        }
+
+        return matches ? (content != null ? content : "") : null;
+    }
+}
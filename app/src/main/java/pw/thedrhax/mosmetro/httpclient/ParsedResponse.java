@@ -28,19 +28,19 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
-import java.io.IOException;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import pw.thedrhax.util.Logger;
-
 public class ParsedResponse {
     private String url;
     private String html;
-    private Document document;
+    private Document document = null;
+    private boolean parsed = false;
+    private boolean truncated = false;
+    private long body_size;
     private int code;
     private Map<String,List<String>> headers = new HashMap<>();
 
@@ -48,26 +48,26 @@ public class ParsedResponse {
                           @Nullable Map<String,List<String>> headers) {
         this.url = url;
         this.html = html;
-
-        if (html != null && !html.isEmpty()) {
-            document = Jsoup.parse(html, url);
-
-            // Clean-up useless tags: <script> without src, <style>
-            for (Element element : document.getElementsByTag("script")) {
-                if (!element.hasAttr("src")) {
-                    element.remove();
-                }
-            }
-            document.getElementsByTag("style").remove();
-        }
-
         this.code = code;
+        this.body_size = html != null ? html.length() : 0;
 
         if (headers != null){
             this.headers.putAll(headers);
         }
     }
 
+    /**
+     * @param truncated True if the body was cut because of its size limit.
+     * @param body_size Number of bytes received from the network.
+     */
+    public ParsedResponse(@Nullable String url, @Nullable String html, int code,
+                          @Nullable Map<String,List<String>> headers,
+                          boolean truncated, long body_size) {
+        this(url, html, code, headers);
+        this.truncated = truncated;
+        this.body_size = body_size;
+    }
+
     public ParsedResponse(String html) {
         this("", html, 200, null);
     }
@@ -86,6 +86,20 @@ public class ParsedResponse {
         return code;
     }
 
+    /**
+     * @return True if only a part of the response body was received.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return Number of bytes of the response body received from the network.
+     */
+    public long getBodySize() {
+        return body_size;
+    }
+
     @Nullable
     public String getResponseHeader(String name) {
         if (headers != null && headers.get(name.toLowerCase()) != null) {
@@ -95,23 +109,43 @@ public class ParsedResponse {
         }
     }
 
+    /**
+     * Parse the page on first access. Most responses (generate_204, JSON, resources)
+     * are never inspected as DOM, so there is no need to build it in advance.
+     */
+    @Nullable
+    private synchronized Document getDocument() {
+        if (!parsed) {
+            parsed = true;
+
+            if (html != null && !html.isEmpty()) {
+                document = Jsoup.parse(html, url);
+
+                // Clean-up useless tags: <script> without src, <style>
+                for (Element element : document.getElementsByTag("script")) {
+                    if (!element.hasAttr("src")) {
+                        element.remove();
+                    }
+                }
+                document.getElementsByTag("style").remove();
+            }
+        }
+
+        return document;
+    }
+
     public Document getPageContent() {
+        Document document = getDocument();
         return document != null ? document : Jsoup.parse("<html></html>");
     }
 
     public String parseMetaContent (String name) throws ParseException {
-        String value = null;
-
-        if (document == null) {
+        if (html == null || html.isEmpty()) {
             throw new ParseException("Document is null!", 0);
         }
 
-        for (Element element : document.getElementsByTag("meta")) {
-            if (name.equalsIgnoreCase(element.attr("name")) ||
-                    name.equalsIgnoreCase(element.attr("http-equiv"))) {
-                value = element.attr("content");
-            }
-        }
+        // Scan raw HTML instead of building the DOM
+        String value = MetaScanner.find(html, name);
 
         if (value == null || value.isEmpty()) {
             throw new ParseException("Meta tag '" + name + "' not found", 0);
@@ -198,6 +232,7 @@ public class ParsedResponse {
     public List<String> parseResourceList() {
         LinkedList<String> links = new LinkedList<>();
 
+        Document document = getDocument();
         if (document == null) {
             return links;
         }
@@ -241,17 +276,7 @@ public class ParsedResponse {
     }
 
     public void loadResources(Client client) {
-        for (String link : parseResourceList()) {
-            Logger.log(this, link);
-
-            try {
-                client.get(link, null);
-            } catch (IOException ignored) {}
-
-            if (!client.running.get()) {
-                break;
-            }
-        }
+        new ResourceLoader(client).load(parseResourceList());
     }
 
     public static Map<String,String> parseForm (Element form) {
@@ -272,6 +297,9 @@ public class ParsedResponse {
 
         builder.append("URL: ").append(" ").append(url).append("\n");
         builder.append("Response code: ").append(code).append("\n");
+        if (truncated) {
+            builder.append("Body truncated!\n");
+        }
 
         for (String header : headers.keySet()) {
             for (String value : headers.get(header)) {
@@ -279,6 +307,7 @@ public class ParsedResponse {
             }
         }
 
+        Document document = getDocument();
         if (document != null) {
             builder.append(document.outerHtml());
         }
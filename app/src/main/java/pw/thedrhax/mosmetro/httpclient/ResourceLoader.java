@@ -0,0 +1,159 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import pw.thedrhax.util.Logger;
+
+/**
+ * Loads resources of the HTML page in parallel, like a browser does.
+ *
+ * All requests are sent through the same Client, so they share cookies and
+ * headers. Every host gets up to MAX_PER_HOST lanes, lanes of all pages share
+ * MAX_TOTAL threads. When the deadline is reached, only requests made by this
+ * loader are cancelled, other requests of the Client keep running.
+ *
+ * @see ParsedResponse#loadResources(Client)
+ */
+class ResourceLoader {
+    private static final int MAX_PER_HOST = 5; // Dispatcher.maxRequestsPerHost of OkHttp
+    private static final int MAX_TOTAL = 8;
+    private static final int DEADLINE = 10000; // ms
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_TOTAL, MAX_TOTAL, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+    );
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Client client;
+    private final Set<AsyncResponse> pending =
+            Collections.newSetFromMap(new ConcurrentHashMap<AsyncResponse,Boolean>());
+    private volatile long deadline;
+
+    ResourceLoader(Client client) {
+        this.client = client;
+    }
+
+    private boolean isExpired() {
+        return !client.running.get() || System.currentTimeMillis() > deadline;
+    }
+
+    private class Lane implements Runnable {
+        private final Queue<String> queue;
+        private final CountDownLatch done;
+
+        Lane(Queue<String> queue, CountDownLatch done) {
+            this.queue = queue;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String link;
+                while (!isExpired() && (link = queue.poll()) != null) {
+                    Logger.log(ResourceLoader.this, link);
+                    request(link);
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void request(String link) {
+            client.beginResource(link);
+            AsyncResponse response = client.getAsync(link, null);
+            pending.add(response);
+
+            // Deadline could be reached while the request was being created
+            if (isExpired()) response.cancel(true);
+
+            try {
+                response.await();
+            } catch (IOException ignored) {
+            } finally {
+                pending.remove(response);
+                client.endResource(link);
+            }
+        }
+    }
+
+    void load(List<String> links) {
+        if (links.isEmpty()) return;
+
+        deadline = System.currentTimeMillis() + DEADLINE;
+
+        // Group links by host preserving the original order
+        Map<String,Queue<String>> hosts = new LinkedHashMap<>();
+        for (String link : links) {
+            String host = Uri.parse(link).getHost();
+            if (!hosts.containsKey(host)) {
+                hosts.put(host, new ConcurrentLinkedQueue<String>());
+            }
+            hosts.get(host).add(link);
+        }
+
+        int lanes = 0;
+        for (Queue<String> queue : hosts.values()) {
+            lanes += Math.min(MAX_PER_HOST, queue.size());
+        }
+
+        CountDownLatch done = new CountDownLatch(lanes);
+        for (Queue<String> queue : hosts.values()) {
+            for (int i = 0; i < Math.min(MAX_PER_HOST, queue.size()); i++) {
+                executor.execute(new Lane(queue, done));
+            }
+        }
+
+        boolean finished;
+        try {
+            finished = done.await(DEADLINE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            finished = false;
+        }
+
+        if (!finished) {
+            Logger.log(this, "Interrupted");
+
+            // Lanes that haven't started yet will exit immediately
+            deadline = 0;
+            for (AsyncResponse response : pending) {
+                response.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient.clients;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+
+/**
+ * Persistent storage of cookies of captive portal hosts, shared by OkHttp
+ * instances that enabled it with OkHttp.setPersistentCookies().
+ *
+ * Cookies are grouped by host (domain and path attributes are not checked).
+ * They survive restarts of Provider and ConnectionService, so a portal session
+ * can be continued after a brief disconnect. Cookies with an expiration date
+ * are kept until it passes, session cookies are kept for SESSION_TTL after
+ * they were received.
+ *
+ * Changed hosts are written to SharedPreferences at once FLUSH_DELAY after the
+ * first change, so a burst of responses causes only one write.
+ *
+ * Storage format: SharedPreferences PREFS_NAME, host → [{"c":"Set-Cookie", "t":<ms>}, ...]
+ */
+class CookieStore {
+    private static final String PREFS_NAME = "cookies";
+    private static final long SESSION_TTL = 15*60*1000; // ms
+    private static final long FLUSH_DELAY = 1000; // ms
+
+    private static CookieStore instance = null;
+
+    private final SharedPreferences prefs;
+    private final Map<String,List<Entry>> cookies = new HashMap<>();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Set<String> dirty = new HashSet<>();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private static class Entry {
+        final Cookie cookie;
+        final long timestamp;
+
+        Entry(Cookie cookie, long timestamp) {
+            this.cookie = cookie;
+            this.timestamp = timestamp;
+        }
+
+        boolean isExpired(long now) {
+            if (cookie.persistent()) {
+                return cookie.expiresAt() <= now;
+            } else {
+                return timestamp + SESSION_TTL <= now;
+            }
+        }
+
+        JSONObject toJSON() {
+            JSONObject result = new JSONObject();
+            result.put("c", cookie.toString());
+            result.put("t", timestamp);
+            return result;
+        }
+    }
+
+    @NonNull
+    static synchronized CookieStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new CookieStore(context);
+        }
+        return instance;
+    }
+
+    private CookieStore(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    private synchronized void load() {
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = prefs.edit();
+
+        for (Map.Entry<String,?> pref : prefs.getAll().entrySet()) {
+            String host = pref.getKey();
+            HttpUrl url = HttpUrl.parse("http://" + host);
+            List<Entry> entries = new ArrayList<>();
+
+            try {
+                JSONArray json = (JSONArray) new JSONParser().parse((String) pref.getValue());
+                for (Object item : json) {
+                    JSONObject object = (JSONObject) item;
+                    Cookie cookie = url != null ? Cookie.parse(url, (String) object.get("c")) : null;
+                    if (cookie == null) continue;
+
+                    Entry entry = new Entry(cookie, ((Number) object.get("t")).longValue());
+                    if (!entry.isExpired(now)) entries.add(entry);
+                }
+            } catch (ParseException | ClassCastException | NullPointerException ignored) {}
+
+            if (entries.isEmpty()) {
+                editor.remove(host);
+            } else {
+                cookies.put(host, entries);
+            }
+        }
+
+        editor.apply();
+    }
+
+    private void save(String host) {
+        if (dirty.isEmpty()) {
+            handler.postDelayed(flush, FLUSH_DELAY);
+        }
+        dirty.add(host);
+    }
+
+    /**
+     * Write all changed hosts to SharedPreferences.
+     */
+    private synchronized void flush() {
+        SharedPreferences.Editor editor = prefs.edit();
+
+        for (String host : dirty) {
+            List<Entry> entries = cookies.get(host);
+
+            if (entries == null || entries.isEmpty()) {
+                editor.remove(host);
+                continue;
+            }
+
+            JSONArray json = new JSONArray();
+            for (Entry entry : entries) {
+                json.add(entry.toJSON());
+            }
+            editor.putString(host, json.toJSONString());
+        }
+
+        dirty.clear();
+        editor.apply();
+    }
+
+    /**
+     * Store cookies replacing the old ones with the same names.
+     */
+    synchronized void put(HttpUrl url, List<Cookie> list) {
+        String host = url.host();
+        long now = System.currentTimeMillis();
+
+        List<Entry> entries = cookies.get(host);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            cookies.put(host, entries);
+        }
+
+        for (Cookie cookie : list) {
+            Iterator<Entry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                if (cookie.name().equals(iterator.next().cookie.name())) {
+                    iterator.remove();
+                }
+            }
+
+            Entry entry = new Entry(cookie, now);
+            if (!entry.isExpired(now)) entries.add(entry);
+        }
+
+        save(host);
+    }
+
+    /**
+     * @return Not expired cookies of the URL's host.
+     */
+    @NonNull
+    synchronized List<Cookie> get(HttpUrl url) {
+        String host = url.host();
+        List<Cookie> result = new ArrayList<>();
+
+        List<Entry> entries = cookies.get(host);
+        if (entries == null) return result;
+
+        long now = System.currentTimeMillis();
+        boolean expired = false;
+
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isExpired(now)) {
+                iterator.remove();
+                expired = true;
+            } else {
+                result.add(entry.cookie);
+            }
+        }
+
+        if (expired) save(host);
+        return result;
+    }
+}
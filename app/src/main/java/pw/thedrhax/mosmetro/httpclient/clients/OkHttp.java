@@ -20,17 +20,24 @@ package pw.thedrhax.mosmetro.httpclient.clients;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.support.annotation.Nullable;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HostnameVerifier;
@@ -40,7 +47,10 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import okhttp3.Cache;
 import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
 import okhttp3.FormBody;
@@ -51,22 +61,79 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import pw.thedrhax.mosmetro.httpclient.AsyncResponse;
 import pw.thedrhax.mosmetro.httpclient.Client;
 import pw.thedrhax.util.WifiUtils;
 import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
 
 public class OkHttp extends Client {
-    private OkHttpClient client;
-    private Call last_call = null;
+    /**
+     * Process-wide OkHttpClient. All instances derive their views from it, so the
+     * connection pool, dispatcher and TLS sessions survive between requests, tasks
+     * and Provider restarts.
+     */
+    private static OkHttpClient shared = null;
+
+    /**
+     * SSLContext used by all views with disabled certificate checks. It is created
+     * only once to keep its TLS session cache alive.
+     */
+    private static SSLSocketFactory trust_all_factory = null;
+    private static X509TrustManager trust_all_manager = null;
+
+    private static synchronized OkHttpClient getSharedClient() {
+        if (shared == null) {
+            shared = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                    .build();
+        }
+        return shared;
+    }
 
-    public OkHttp(Context context) {
-        super(context);
-        client = new OkHttpClient.Builder().cookieJar(new InterceptedCookieJar()).build();
-        configure();
+    /**
+     * Pool that closes connections right after use. Views that don't reuse connections
+     * share it, so their requests never go through sockets opened for other ones.
+     */
+    private static final ConnectionPool NO_REUSE = new ConnectionPool(0, 1, TimeUnit.SECONDS);
+
+    /**
+     * Disk cache for static resources of captive portals. It is shared between
+     * all instances and survives between connections, so stylesheets, scripts and
+     * images are served from disk or revalidated (304) instead of being refetched.
+     */
+    private static final int RESOURCE_CACHE_SIZE = 10 * 1024 * 1024;
+    private static Cache resource_cache = null;
+
+    @Nullable
+    private static synchronized Cache getResourceCache(@Nullable Context context) {
+        if (resource_cache == null && context != null) {
+            resource_cache = new Cache(
+                    new File(context.getCacheDir(), "resources"), RESOURCE_CACHE_SIZE
+            );
+        }
+        return resource_cache;
     }
 
-    @Override
-    public Client trustAllCerts() {
+    /**
+     * @return Number of resource requests served from cache (including revalidated).
+     */
+    public static synchronized int getCacheHitCount() {
+        return resource_cache != null ? resource_cache.hitCount() : 0;
+    }
+
+    /**
+     * @return Number of resource requests that were not served from cache.
+     */
+    public static synchronized int getCacheMissCount() {
+        return resource_cache != null ?
+                resource_cache.requestCount() - resource_cache.hitCount() : 0;
+    }
+
+    private static synchronized boolean initTrustAll() {
+        if (trust_all_factory != null) return true;
+
         X509TrustManager tm = new X509TrustManager() {
             @SuppressLint("TrustAllX509TrustManager")
             @Override
@@ -84,28 +151,104 @@ public class OkHttp extends Client {
             }
         };
 
-        SSLSocketFactory socketFactory;
         try {
             SSLContext sslContext = SSLContext.getInstance("TLS");
             sslContext.init(null, new TrustManager[]{tm}, new java.security.SecureRandom());
-            socketFactory = sslContext.getSocketFactory();
+            trust_all_factory = sslContext.getSocketFactory();
+            trust_all_manager = tm;
         } catch (NoSuchAlgorithmException | KeyManagementException ex) {
-            return this;
+            return false;
         }
 
-        HostnameVerifier hostnameVerifier = new HostnameVerifier() {
-            @SuppressLint("BadHostnameVerifier")
-            @Override
-            public boolean verify(String hostname, SSLSession session) {
-                return true;
-            }
-        };
+        return true;
+    }
+
+    private static final HostnameVerifier TRUST_ALL_HOSTNAMES = new HostnameVerifier() {
+        @SuppressLint("BadHostnameVerifier")
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
+    private final InterceptedCookieJar cookies = new InterceptedCookieJar();
 
-        client = client.newBuilder()
-                .hostnameVerifier(hostnameVerifier)
-                .sslSocketFactory(socketFactory, tm)
-                .build();
+    // Hosts whose cookies are kept in CookieStore, see setPersistentCookies()
+    private final List<String> persistent_hosts = new ArrayList<>();
+    private final Map<String,OkHttpClient> views = new HashMap<>();
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Response body limits by content type, bytes
+    private final Map<String,Long> body_limits = new HashMap<String,Long>() {{
+        put("text/html", 1024L * 1024);
+        put("application/json", 256L * 1024);
+        put("text", 256L * 1024);
+        put("image", 2048L * 1024);
+        put("video", 2048L * 1024);
+        put("*", 1024L * 1024);
+    }};
+
+    // View settings
+    private boolean trust_all = false;
+    private boolean follow_redirects = true;
+    private boolean reuse_connections = true;
+    private int timeout = 0;
+
+    // Requests in progress, canceled by stop()
+    private final Set<Call> calls = Collections.newSetFromMap(new ConcurrentHashMap<Call,Boolean>());
+
+    public OkHttp(Context context) {
+        super(context);
+        configure();
+    }
+
+    /**
+     * Get a lightweight view of the shared client with settings of this instance.
+     * Views are cached, so switching between them (followRedirects) is free.
+     * @param cached Use the disk cache (only for static resources).
+     */
+    private synchronized OkHttpClient getClient(boolean cached) {
+        String key = trust_all + "|" + follow_redirects + "|" + reuse_connections + "|" +
+                timeout + "|" + cached;
+
+        OkHttpClient client = views.get(key);
+        if (client != null) return client;
+
+        OkHttpClient.Builder builder = getSharedClient().newBuilder()
+                .cookieJar(cookies)
+                .followRedirects(follow_redirects)
+                .followSslRedirects(follow_redirects);
+
+        if (timeout != 0) {
+            builder.connectTimeout(timeout, TimeUnit.MILLISECONDS)
+                   .readTimeout(timeout, TimeUnit.MILLISECONDS)
+                   .writeTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        if (trust_all) {
+            builder.hostnameVerifier(TRUST_ALL_HOSTNAMES)
+                   .sslSocketFactory(trust_all_factory, trust_all_manager);
+        }
+
+        if (cached) {
+            builder.cache(getResourceCache(context));
+        }
+
+        if (!reuse_connections) {
+            builder.connectionPool(NO_REUSE);
+        }
+
+        client = builder.build();
+        views.put(key, client);
+        return client;
+    }
+
+    @Override
+    public Client trustAllCerts() {
+        if (initTrustAll()) {
+            trust_all = true;
+        }
         return this;
     }
 
@@ -114,14 +257,14 @@ public class OkHttp extends Client {
         HttpUrl httpUrl = HttpUrl.parse(url);
         List<Cookie> url_cookies = new ArrayList<>();
         url_cookies.add(Cookie.parse(httpUrl, name + "=" + value));
-        client.cookieJar().saveFromResponse(httpUrl, url_cookies);
+        cookies.saveFromResponse(httpUrl, url_cookies);
         return this;
     }
 
     public Map<String, String> getCookies(String url) {
         HttpUrl httpUrl = HttpUrl.parse(url);
         Map<String,String> result = new HashMap<>();
-        List<Cookie> url_cookies = client.cookieJar().loadForRequest(httpUrl);
+        List<Cookie> url_cookies = cookies.loadForRequest(httpUrl);
         if (url_cookies != null)
             for (Cookie cookie : url_cookies) {
                 result.put(cookie.name(), cookie.value());
@@ -132,27 +275,17 @@ public class OkHttp extends Client {
     @Override
     public Client setTimeout(int ms) {
         if (ms == 0) return this;
-
-        client = client.newBuilder()
-                .connectTimeout(ms, TimeUnit.MILLISECONDS)
-                .readTimeout(ms, TimeUnit.MILLISECONDS)
-                .writeTimeout(ms, TimeUnit.MILLISECONDS)
-                .build();
-
+        timeout = ms;
         return this;
     }
 
     @Override
     public Client followRedirects(boolean follow) {
-        client = client.newBuilder()
-                .followRedirects(follow)
-                .followSslRedirects(follow)
-                .build();
-
+        follow_redirects = follow;
         return this;
     }
 
-    private Response call(String url, RequestBody data) throws IOException {
+    private Call newCall(String url, RequestBody data) throws IOException {
         if (!running.get()) throw new InterruptedIOException();
 
         Request.Builder builder = new Request.Builder().url(url);
@@ -165,8 +298,8 @@ public class OkHttp extends Client {
         }
 
         // Populate headers
-        for (String name : headers.keySet()) {
-            builder.addHeader(name, getHeader(name));
+        for (Map.Entry<String,String> header : headers.entrySet()) {
+            builder.addHeader(header.getKey(), header.getValue());
         }
 
         // Upgrade-Insecure-Requests
@@ -184,15 +317,25 @@ public class OkHttp extends Client {
             new WifiUtils(context).bindToWifi();
         }
 
-        last_call = client.newCall(builder.build());
-        return last_call.execute();
+        boolean cached = data == null && Client.isStaticResource(url);
+
+        // Body of a resource is downloaded, but not read (tag survives redirects)
+        if (data == null && isResource(url)) {
+            builder.tag(RESOURCE);
+        }
+
+        return getClient(cached).newCall(builder.build());
     }
 
-    @Override
-    protected ParsedResponse request(METHOD method, String link, Map<String, String> params) throws IOException {
+    /**
+     * Create a Call for the request of any supported method.
+     * @return Call or null if parameters are invalid.
+     */
+    @Nullable
+    private Call newCall(METHOD method, String link, Map<String, String> params) throws IOException {
         switch (method) {
             case GET:
-                return parse(call(link + requestToString(params), null));
+                return newCall(link + requestToString(params), null);
 
             case POST:
                 FormBody.Builder body = new FormBody.Builder();
@@ -204,25 +347,157 @@ public class OkHttp extends Client {
                     }
                 }
 
-                return parse(call(link, body.build()));
+                return newCall(link, body.build());
 
             case POST_RAW:
                 if (params == null || !params.containsKey("type") || !params.containsKey("body"))
                     return null;
                 else
-                    return parse(call(link, RequestBody.create(
+                    return newCall(link, RequestBody.create(
                             MediaType.parse(params.get("type")), params.get("body")
-                    )));
+                    ));
         }
 
         return null;
     }
 
+    @Override
+    protected ParsedResponse request(METHOD method, String link, Map<String, String> params) throws IOException {
+        Call call = newCall(method, link, params);
+        if (call == null) return null;
+
+        calls.add(call);
+        try {
+            return parse(call.execute());
+        } finally {
+            calls.remove(call);
+        }
+    }
+
+    @Override
+    protected void requestAsync(METHOD method, String link, Map<String, String> params,
+                                final AsyncResponse result) {
+        final Call call;
+
+        try {
+            call = newCall(method, link, params);
+        } catch (IOException ex) {
+            result.fail(ex);
+            return;
+        }
+
+        if (call == null) {
+            result.complete(null);
+            return;
+        }
+
+        result.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        });
+
+        calls.add(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException ex) {
+                calls.remove(call);
+                result.fail(ex);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                ParsedResponse parsed;
+
+                try {
+                    parsed = parse(response);
+                } catch (IOException ex) {
+                    calls.remove(call);
+                    result.fail(ex);
+                    return;
+                }
+
+                calls.remove(call);
+                result.complete(parsed);
+            }
+        });
+    }
+
     @Override
     public void stop() {
-        if (last_call != null) {
-            last_call.cancel();
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Get the maximum number of bytes to be read from the body of this type.
+     */
+    private long getBodyLimit(@Nullable MediaType type) {
+        if (type == null) {
+            return body_limits.get("text/html");
+        }
+
+        String full = type.type() + "/" + type.subtype();
+        if (body_limits.containsKey(full)) {
+            return body_limits.get(full);
+        } else if (body_limits.containsKey(type.type())) {
+            return body_limits.get(type.type());
+        } else {
+            return body_limits.get("*");
+        }
+    }
+
+    /**
+     * Disable reuse of pooled keep-alive connections. Connectivity checks must open
+     * a new connection, because an old one may have been opened before the portal
+     * session expired or the network changed.
+     */
+    public OkHttp setConnectionReuse(boolean reuse) {
+        reuse_connections = reuse; return this;
+    }
+
+    /**
+     * Keep cookies of these hosts and their subdomains in CookieStore, so they
+     * survive restarts of Provider. Cookies of other hosts are kept only in
+     * memory of this instance.
+     */
+    public OkHttp setPersistentCookies(String... hosts) {
+        persistent_hosts.addAll(Arrays.asList(hosts)); return this;
+    }
+
+    /**
+     * Set the maximum number of bytes to be read from the response body.
+     * @param type  MIME type ("text/html"), top-level type ("image") or "*".
+     * @param limit Number of bytes. Longer bodies are truncated.
+     */
+    public OkHttp setBodyLimit(String type, long limit) {
+        body_limits.put(type, limit); return this;
+    }
+
+    /**
+     * Tag of requests for resources. Resources like images, stylesheets and scripts
+     * are only downloaded to emulate the browser, so their bodies are drained
+     * without conversion to String. Bodies of all other responses are read up to
+     * the limit of their type, unknown types included.
+     */
+    private static final Object RESOURCE = new Object();
+
+    /**
+     * Move the end of truncated UTF-8 text back to the last complete code point,
+     * so a multibyte sequence isn't decoded as U+FFFD.
+     * @return Number of bytes to be decoded.
+     */
+    private static long getUtf8Boundary(Buffer buffer, long size) {
+        for (long i = size - 1; i >= 0 && i >= size - 4; i--) {
+            int b = buffer.getByte(i) & 0xFF;
+            if ((b & 0xC0) == 0x80) continue; // continuation byte
+
+            int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return i + length <= size ? size : i;
         }
+        return size;
     }
 
     private ParsedResponse parse(Response response) throws IOException {
@@ -232,9 +507,47 @@ public class OkHttp extends Client {
             throw new IOException("Response body is null! Code: " + response.code());
         }
 
+        MediaType type = body.contentType();
+        long limit = getBodyLimit(type);
+        String content = "";
+        boolean truncated;
+        long size;
+
+        try {
+            BufferedSource source = body.source();
+
+            if (response.request().tag() != RESOURCE) {
+                truncated = source.request(limit + 1);
+
+                Buffer buffer = source.buffer();
+                Charset charset = type != null ? type.charset(UTF_8) : UTF_8;
+                size = Math.min(buffer.size(), limit);
+                if (truncated && UTF_8.equals(charset)) {
+                    size = getUtf8Boundary(buffer, size);
+                }
+                content = buffer.readString(size, charset);
+            } else {
+                // Drain to nowhere without String allocation
+                Buffer sink = new Buffer();
+                long total = 0;
+
+                while (total <= limit) {
+                    long read = source.read(sink, 8192);
+                    if (read == -1) break;
+                    total += read;
+                    sink.clear();
+                }
+
+                truncated = total > limit;
+                size = total;
+            }
+        } finally {
+            body.close();
+        }
+
         return new ParsedResponse(
-                response.request().url().toString(), body.string(),
-                response.code(), response.headers().toMultimap()
+                response.request().url().toString(), content,
+                response.code(), response.headers().toMultimap(), truncated, size
         );
     }
 
@@ -245,8 +558,22 @@ public class OkHttp extends Client {
             return HttpUrl.parse("http://" + url.host());
         }
 
+        private boolean isPersistent(HttpUrl url) {
+            String host = url.host();
+            for (String persistent : persistent_hosts) {
+                if (host.equals(persistent) || host.endsWith("." + persistent))
+                    return true;
+            }
+            return false;
+        }
+
         @Override
-        public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+        public synchronized void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+            if (isPersistent(url)) {
+                CookieStore.getInstance(context).put(url, cookies);
+                return;
+            }
+
             HttpUrl host = getHost(url);
             List<Cookie> url_cookies = loadForRequest(host);
             for (Cookie cookie : cookies) {
@@ -264,10 +591,14 @@ public class OkHttp extends Client {
         }
 
         @Override
-        public List<Cookie> loadForRequest(HttpUrl url) {
+        public synchronized List<Cookie> loadForRequest(HttpUrl url) {
+            if (isPersistent(url)) {
+                return CookieStore.getInstance(context).get(url);
+            }
+
             HttpUrl host = getHost(url);
             List<Cookie> url_cookies = cookies.get(host);
-            return (url_cookies != null) ? url_cookies : new ArrayList<Cookie>();
+            return (url_cookies != null) ? new ArrayList<>(url_cookies) : new ArrayList<Cookie>();
         }
     }
 }
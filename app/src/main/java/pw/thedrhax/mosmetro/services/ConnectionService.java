@@ -318,6 +318,7 @@ public class ConnectionService extends IntentService {
             );
 
             Logger.date("<<< ");
+            Logger.flush();
         } else {
             Logger.log(this, "Already running");
         }
@@ -18,8 +18,12 @@
 
 package pw.thedrhax.util;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.os.SystemClock;
 
@@ -31,29 +35,57 @@ import android.os.SystemClock;
  *   - Allow to retrieve and change the value of variable at any time
  *   - Notify about every change using the onChange() callback
  *   - Interruptible delays
- *   - Stack Overflow protection by checking if callback is the master
+ *   - Stack Overflow protection: every Listener is notified only once per set()
+ *
+ * Reading the value never blocks. Subscribers are stored in copy-on-write lists,
+ * so set() walks a snapshot of the cascade. Concurrent set() calls on the same
+ * Listener are serialized, so the whole cascade ends up with the same value.
  *
  * @author Dmitry Karikh <the.dr.hax@gmail.com>
  * @param <T> type of the stored variable
  */
 public class Listener<T> {
-    private T value;
-    private final List<Listener<T>> callbacks = new LinkedList<>();
+    private volatile T value;
+    private final CopyOnWriteArrayList<Listener<T>> callbacks = new CopyOnWriteArrayList<>();
+
+    // Monitor used to serialize set() calls started from this Listener
+    private final Object write_lock = new Object();
+
+    // Monitor used to wake up threads waiting in sleep()
+    private final Object lock = new Object();
+    private volatile int sleepers = 0;
 
     public Listener(T initial_value) {
         value = initial_value;
     }
 
-    public final synchronized void set(T new_value) {
-        value = new_value;
-        onChange(new_value);
-        synchronized (callbacks) {
-            for (Listener<T> callback : callbacks) {
-                if (callback.callbacks.contains(this)) {
-                    callback.value = new_value;
-                    callback.onChange(new_value);
-                } else {
-                    callback.set(new_value);
+    /**
+     * Change the value of this Listener and all its subscribers (recursively).
+     * Cascade is traversed iteratively in depth-first order, cycles are skipped.
+     */
+    public final void set(T new_value) {
+        synchronized (write_lock) {
+            Set<Listener<T>> visited = Collections.newSetFromMap(
+                    new IdentityHashMap<Listener<T>,Boolean>()
+            );
+            Deque<Listener<T>> stack = new ArrayDeque<>();
+
+            visited.add(this);
+            stack.push(this);
+
+            while (!stack.isEmpty()) {
+                Listener<T> listener = stack.pop();
+                listener.update(new_value);
+                listener.onChange(new_value);
+
+                // Push in reverse order to notify subscribers in order of subscription
+                Object[] snapshot = listener.callbacks.toArray();
+                for (int i = snapshot.length - 1; i >= 0; i--) {
+                    @SuppressWarnings("unchecked")
+                    Listener<T> callback = (Listener<T>) snapshot[i];
+                    if (visited.add(callback)) {
+                        stack.push(callback);
+                    }
                 }
             }
         }
@@ -63,48 +95,66 @@ public class Listener<T> {
         return value;
     }
 
+    /**
+     * Change the stored value and wake up all threads waiting in sleep().
+     */
+    private void update(T new_value) {
+        value = new_value;
+
+        // Both fields are volatile: either the sleeper sees the new value,
+        // or this thread sees the sleeper
+        if (sleepers > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
     /**
      * Delay execution for N milliseconds, but return as quick as possible if stored
-     * value has changed.
+     * value has changed. Waiting thread is woken up by set() directly.
      * 
      * @param ms Number of milliseconds to delay for.
      * @return Stored value.
      */
     public T sleep(int ms) {
+        long deadline = SystemClock.uptimeMillis() + ms;
+        boolean interrupted = false;
         T initial_value = value;
 
-        while (ms > 0) {
-            if (ms > 100) {
-                SystemClock.sleep(100);
-                ms -= 100;
-            } else {
-                SystemClock.sleep(ms);
-                ms = 0;
-            }
+        synchronized (lock) {
+            sleepers++;
+            try {
+                while (value == initial_value) {
+                    long left = deadline - SystemClock.uptimeMillis();
+                    if (left <= 0) break;
 
-            if (value != initial_value) {
-                return value;
+                    try {
+                        lock.wait(left);
+                    } catch (InterruptedException ex) {
+                        // Ignore interrupts like SystemClock.sleep() does
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                sleepers--;
             }
         }
 
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
         return value;
     }
 
     public void subscribe(Listener<T> master) {
-        synchronized (master.callbacks) {
-            if (!master.callbacks.contains(this)) {
-                master.callbacks.add(this);
-            }
-        }
-        this.value = master.value;
+        master.callbacks.addIfAbsent(this);
+        update(master.value);
     }
 
     public void unsubscribe(Listener<T> master) {
-        synchronized (master.callbacks) {
-            if (master.callbacks.contains(this)) {
-                master.callbacks.remove(this);
-            }
-        }
+        master.callbacks.remove(this);
     }
 
     public void onChange(T new_value) {
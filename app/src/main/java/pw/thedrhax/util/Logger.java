@@ -29,20 +29,32 @@ import android.preference.PreferenceManager;
 import android.support.v4.content.FileProvider;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import pw.thedrhax.mosmetro.R;
 
@@ -70,10 +82,12 @@ public class Logger {
      */
 
     private static boolean pref_debug_logcat = false;
+    private static volatile boolean debug_capture = true;
 
     public static void configure(Context context) {
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
         pref_debug_logcat = settings.getBoolean("pref_debug_logcat", false);
+        debug_capture = settings.getBoolean("pref_debug_capture", true);
 
         for (LEVEL level : LEVEL.values()) {
             if (logs.containsKey(level)) {
@@ -84,7 +98,8 @@ public class Logger {
             LogWriter writer = new LogWriter(
                 context.getFilesDir(),
                 "log-" + level.toString().toLowerCase() + ".txt",
-                level == LEVEL.INFO ? 100 : 2000
+                level == LEVEL.INFO ? 100 : 2000,
+                level == LEVEL.INFO ? 64 * 1024 : 512 * 1024
             );
 
             logs.put(level, writer);
@@ -93,11 +108,28 @@ public class Logger {
         log(LEVEL.DEBUG, CUT);
     }
 
+    /**
+     * Check if messages of this level are stored anywhere. Use it to avoid
+     * building expensive messages that will be discarded.
+     */
+    public static boolean isEnabled(LEVEL level) {
+        return level != LEVEL.DEBUG || debug_capture || pref_debug_logcat;
+    }
+
+    /**
+     * Message that is built only if it's going to be stored.
+     */
+    public interface Supplier {
+        String get();
+    }
+
     /*
      * Inputs
      */
 
     public static void log (LEVEL level, String message) {
+        if (!isEnabled(level)) return;
+
         synchronized (logs) {
             if (level == LEVEL.DEBUG && message != CUT) {
                 if (pref_debug_logcat) {
@@ -112,7 +144,14 @@ public class Logger {
         onUpdate(level, message);
     }
 
+    public static void log (LEVEL level, Supplier message) {
+        if (!isEnabled(level)) return;
+        log(level, message.get());
+    }
+
     public static void log (LEVEL level, Throwable ex) {
+        if (!isEnabled(level)) return;
+
         // getStackTraceString ignores DNS errors
         if (ex instanceof UnknownHostException) {
             log(level, ex.toString());
@@ -128,11 +167,16 @@ public class Logger {
     }
 
     public static void log (Object obj, String message) {
-        log(LEVEL.DEBUG, String.format(Locale.ENGLISH, "%s (%d) | %s",
-                obj.getClass().getSimpleName(),
-                System.identityHashCode(obj),
-                message
-        ));
+        if (!isEnabled(LEVEL.DEBUG)) return;
+
+        log(LEVEL.DEBUG, obj.getClass().getSimpleName() +
+                " (" + System.identityHashCode(obj) + ") | " + message
+        );
+    }
+
+    public static void log (Object obj, Supplier message) {
+        if (!isEnabled(LEVEL.DEBUG)) return;
+        log(obj, message.get());
     }
 
     /*
@@ -155,12 +199,59 @@ public class Logger {
      * Outputs
      */
 
-    public static LinkedList<String> read(LEVEL level) {
+    private static LogWriter get(LEVEL level) {
         synchronized (logs) {
-            return new LinkedList<>(logs.get(level));
+            return logs.get(level);
         }
     }
 
+    /**
+     * @return Snapshot of all stored messages of this level.
+     */
+    public static List<String> read(LEVEL level) {
+        return get(level).read(0);
+    }
+
+    /**
+     * Read messages added after the cursor.
+     * @param cursor Value returned by getCursor() earlier.
+     * @return Messages still stored in memory, oldest first.
+     */
+    public static List<String> read(LEVEL level, long cursor) {
+        return get(level).read(cursor);
+    }
+
+    /**
+     * Append messages added after the cursor to the list.
+     * @param cursor    Value returned by getCursor() or this method earlier.
+     * @param out       List to append messages to.
+     * @return          New value of the cursor.
+     */
+    public static long read(LEVEL level, long cursor, List<String> out) {
+        return get(level).read(cursor, out);
+    }
+
+    /**
+     * @return Position after the last message of this level.
+     */
+    public static long getCursor(LEVEL level) {
+        return get(level).getCursor();
+    }
+
+    /**
+     * @return Number of messages of this level stored in memory.
+     */
+    public static int size(LEVEL level) {
+        return get(level).size();
+    }
+
+    /**
+     * @param index Index of message, 0 is the oldest one.
+     */
+    public static String get(LEVEL level, int index) {
+        return get(level).get(index);
+    }
+
     public static String toString(LEVEL level) {
         StringBuilder result = new StringBuilder();
         for (String message : read(level)) {
@@ -169,103 +260,325 @@ public class Logger {
         return result.toString();
     }
 
+    /*
+     * Background file writer
+     *
+     * Log lines are written to files by a separate thread in batches, so callers
+     * never wait for disk I/O. The queue is bounded: if the writer can't keep up,
+     * the oldest lines are dropped (they are still available in memory).
+     */
+
+    private static final int QUEUE_CAPACITY = 4096; // lines
+    private static final int BATCH_SIZE = 256; // lines
+    private static final long FLUSH_INTERVAL = 1000; // ms
+
+    private static final Object write_lock = new Object();
+    private static final Queue<PendingLine> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queue_size = new AtomicInteger(0);
+    private static final AtomicInteger dropped = new AtomicInteger(0);
+    private static volatile Thread writer_thread = null;
+
+    private static class PendingLine {
+        final LogWriter writer;
+        final String line;
+
+        PendingLine(LogWriter writer, String line) {
+            this.writer = writer;
+            this.line = line;
+        }
+    }
+
+    private static Thread getWriterThread() {
+        if (writer_thread == null) {
+            synchronized (write_lock) {
+                if (writer_thread == null) {
+                    Thread thread = new Thread("Logger") {
+                        @Override
+                        public void run() {
+                            while (true) {
+                                LockSupport.parkNanos(FLUSH_INTERVAL * 1000000);
+                                flush();
+                            }
+                        }
+                    };
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    thread.start();
+                    writer_thread = thread;
+                }
+            }
+        }
+        return writer_thread;
+    }
+
+    private static void enqueue(LogWriter writer, String line) {
+        queue.offer(new PendingLine(writer, line));
+
+        int size = queue_size.incrementAndGet();
+        while (size > QUEUE_CAPACITY && queue.poll() != null) {
+            dropped.incrementAndGet();
+            size = queue_size.decrementAndGet();
+        }
+
+        Thread thread = getWriterThread();
+        if (size >= BATCH_SIZE) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Write all pending lines to files. Called periodically by the writer thread,
+     * and must be called before the process is killed or crashed.
+     */
+    public static void flush() {
+        synchronized (write_lock) {
+            Set<LogWriter> batch = Collections.newSetFromMap(
+                    new IdentityHashMap<LogWriter,Boolean>()
+            );
+            int lost = dropped.getAndSet(0);
+
+            PendingLine pending;
+            while ((pending = queue.poll()) != null) {
+                queue_size.decrementAndGet();
+
+                if (batch.add(pending.writer) && lost > 0) {
+                    pending.writer.write("[" + lost + " lines dropped]");
+                }
+
+                pending.writer.write(pending.line);
+            }
+
+            for (LogWriter writer : batch) {
+                writer.flush();
+            }
+        }
+    }
+
     /**
      * Log file writer
+     *
+     * Messages are stored in memory in a fixed-size ring buffer, so the oldest
+     * ones are overwritten after reaching the capacity.
+     *
+     * The log file is rotated when it exceeds the size limit: the current file is
+     * renamed to "<name>.1" replacing the previous one, and a new file is started.
+     * History is loaded from the end of both files without reading them entirely.
      */
 
-    public static class LogWriter extends LinkedList<String> {
-        private File file;
-        private FileWriter writer = null;
+    public static class LogWriter {
+        private static final int DEFAULT_CAPACITY = 2000;
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private final File file;
+        private final long max_size;
+        private Writer writer = null;
 
+        private final String[] buffer;
+        private int head = 0; // index of the oldest message
+        private int size = 0;
+        private long count = 0; // number of messages added since creation
+
+        /**
+         * Read the last lines of the file by seeking backward from its end.
+         * @return Up to N lines, oldest first.
+         */
         private static List<String> tail(File file, int lines) {
             List<String> history = new LinkedList<>();
 
-            if (!file.exists()) return history;
+            if (!file.exists() || lines <= 0) return history;
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                long length = raf.length();
+                long start = 0;
+                long pos = length;
+                int found = 0;
+                byte[] chunk = new byte[8192];
+
+                search:
+                while (pos > 0) {
+                    int read = (int) Math.min(chunk.length, pos);
+                    pos -= read;
+                    raf.seek(pos);
+                    raf.readFully(chunk, 0, read);
+
+                    for (int i = read - 1; i >= 0; i--) {
+                        // Line break at the end of the file doesn't start a new line
+                        if (chunk[i] == '\n' && pos + i != length - 1) {
+                            if (++found == lines) {
+                                start = pos + i + 1;
+                                break search;
+                            }
+                        }
+                    }
+                }
 
-            try (FileReader is = new FileReader(file)) {
-                BufferedReader reader = new BufferedReader(is);
+                byte[] data = new byte[(int) (length - start)];
+                raf.seek(start);
+                raf.readFully(data);
 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    history.add(line);
+                if (data.length > 0) {
+                    history.addAll(Arrays.asList(new String(data, UTF_8).split("\n")));
                 }
             } catch (IOException ignored) {}
 
-            if (history.size() > lines) {
-                int start = history.size() - lines, end = history.size();
-                history = history.subList(start, end);
-            }
-
             return history;
         }
 
-        public LogWriter(File dir, String filename, int truncate) {
-            file = new File(dir, filename);
+        public LogWriter(File dir, String filename, int truncate, long max_size) {
+            this.file = new File(dir, filename);
+            this.max_size = max_size;
+            this.buffer = new String[truncate];
 
+            // Load history from the current and the rotated file
             List<String> history = tail(file, truncate);
+            if (history.size() < truncate) {
+                List<String> older = tail(getRotatedFile(), truncate - history.size());
+                older.addAll(history);
+                history = older;
+            }
 
-            clear();
+            for (String line : history) {
+                store(line);
+            }
 
-            if (history.size() > 0) {
-                addAll(history);
+            synchronized (write_lock) {
+                open(true);
             }
         }
 
         public LogWriter() {
-            file = null;
+            this.file = null;
+            this.max_size = 0;
+            this.buffer = new String[DEFAULT_CAPACITY];
         }
 
-        @Override
-        public boolean add(String e) {
+        private File getRotatedFile() {
+            return new File(file.getPath() + ".1");
+        }
+
+        public synchronized void add(String e) {
+            if (file != null) enqueue(this, e);
+            store(e);
+        }
+
+        private synchronized void store(String e) {
+            buffer[(head + size) % buffer.length] = e;
+            if (size < buffer.length) {
+                size++;
+            } else {
+                head = (head + 1) % buffer.length;
+            }
+            count++;
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        public synchronized String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return buffer[(head + index) % buffer.length];
+        }
+
+        public synchronized long getCursor() {
+            return count;
+        }
+
+        /**
+         * @return Messages added after the cursor that are still in memory.
+         */
+        public synchronized List<String> read(long cursor) {
+            List<String> result = new ArrayList<>();
+            read(cursor, result);
+            return result;
+        }
+
+        /**
+         * Append messages added after the cursor to the list.
+         * @return Cursor pointing after the last message.
+         */
+        public synchronized long read(long cursor, List<String> out) {
+            long first = count - size;
+            int from = (int) Math.min(Math.max(cursor, first) - first, size);
+
+            for (int i = from; i < size; i++) {
+                out.add(buffer[(head + i) % buffer.length]);
+            }
+            return count;
+        }
+
+        // Methods below must be called with write_lock held
+
+        private void open(boolean append) {
+            if (file == null) return;
+
             try {
-                if (writer != null) {
-                    writer.write(e + '\n');
-                    writer.flush();
-                }
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(file, append), UTF_8
+                ));
+            } catch (IOException ignored) {
+                writer = null;
+            }
+        }
+
+        private void closeWriter() {
+            if (writer == null) return;
+
+            try {
+                writer.close();
             } catch (IOException ignored) {}
-            return super.add(e);
+
+            writer = null;
         }
 
-        @Override
-        public boolean addAll(Collection<? extends String> c) {
-            for (String line : c) {
-                try {
-                    if (writer != null) writer.write(line + '\n');
-                } catch (IOException ignored) {}
-            }
+        private void write(String line) {
+            try {
+                if (writer != null) writer.write(line + '\n');
+            } catch (IOException ignored) {}
+        }
 
+        private void flush() {
             try {
                 if (writer != null) writer.flush();
-            } catch (IOException ignored) {}            
+            } catch (IOException ignored) {}
+
+            // Rotate the file if it became too large
+            if (writer != null && file.length() > max_size) {
+                closeWriter();
 
-            return super.addAll(c);
+                File rotated = getRotatedFile();
+                rotated.delete();
+                file.renameTo(rotated);
+
+                open(false);
+            }
         }
 
-        @Override
         public void clear() {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException ignored) {}
-                writer = null;
-            }
+            synchronized (write_lock) {
+                Logger.flush();
+                closeWriter();
 
-            if (file != null) {
-                try {
-                    writer = new FileWriter(file, false);
-                } catch (IOException ignored) {}
+                if (file != null) {
+                    getRotatedFile().delete();
+                    open(false);
+                }
             }
 
-            super.clear();
+            synchronized (this) {
+                Arrays.fill(buffer, null);
+                head = 0;
+                size = 0;
+            }
         }
 
         public void close() {
-            try {
-                if (writer != null) {
-                    writer.close();
-                    writer = null;
-                }
-            } catch (IOException ignored) {}
+            synchronized (write_lock) {
+                Logger.flush();
+                closeWriter();
+            }
         }
     }
 
@@ -297,7 +610,7 @@ public class Logger {
         } catch (IOException ex) {
             Logger.log(Logger.LEVEL.DEBUG, ex);
             Logger.log(context.getString(R.string.error, context.getString(R.string.error_log_file)));
-            share.putExtra(Intent.EXTRA_TEXT, read(Logger.LEVEL.DEBUG));
+            share.putExtra(Intent.EXTRA_TEXT, Logger.toString(Logger.LEVEL.DEBUG));
         }
 
         context.startActivity(Intent.createChooser(
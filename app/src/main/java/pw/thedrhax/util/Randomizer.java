@@ -21,6 +21,7 @@ package pw.thedrhax.util;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 
 import java.security.SecureRandom;
@@ -35,6 +36,14 @@ public class Randomizer {
     private int delay_min = 0;
     private int delay_max = 0;
 
+    // Total time spent in delay() by each thread, ms
+    private static final ThreadLocal<long[]> delay_time = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] {0};
+        }
+    };
+
     public Randomizer(Context context) {
         this.context = context;
 
@@ -51,7 +60,18 @@ public class Randomizer {
         double a = (delay_max + delay_min) / 2;
         double s = Math.sqrt((delay_max - a)) / 3;
         int delay = (int) ((random.nextGaussian() * s + a) * 1000);
-        return running.sleep(delay);
+
+        long start = SystemClock.uptimeMillis();
+        boolean result = running.sleep(delay);
+        delay_time.get()[0] += SystemClock.uptimeMillis() - start;
+        return result;
+    }
+
+    /**
+     * @return Total time spent by the current thread in delay(), ms.
+     */
+    public static long getDelayTime() {
+        return delay_time.get()[0];
     }
 
     // grep download.php access.log | grep -Eo '(Mozilla|Opera)[^"]*' | \
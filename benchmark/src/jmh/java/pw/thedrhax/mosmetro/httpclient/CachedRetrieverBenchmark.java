@@ -0,0 +1,97 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Lookups of CachedRetriever backed by CacheStore in a temporary directory.
+ * Requests of missing entries fail immediately, so the miss path measures
+ * the overhead of cache and coalescing without the network.
+ */
+@State(Scope.Benchmark)
+public class CachedRetrieverBenchmark {
+    private static final String URL = "https://mosmetro-android.github.io/base-url";
+    private static final String CONTENT = "https://mosmetro.duckdns.org";
+
+    @Param({"16", "256"})
+    public int entries;
+
+    private File dir;
+    private CacheStore storage;
+    private CachedRetriever retriever;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("retriever").toFile();
+        Context context = new Context(dir);
+
+        storage = CacheStore.getInstance(context);
+        retriever = new CachedRetriever(context);
+
+        for (int i = 0; i < entries; i++) {
+            storage.write(URL + "?" + i, CONTENT + "/" + i);
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        for (int i = 0; i < entries; i++) {
+            storage.remove(URL + "?" + i);
+        }
+
+        File[] files = new File(dir, "retriever").listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        new File(dir, "retriever").delete();
+        dir.delete();
+    }
+
+    private String randomUrl() {
+        return URL + "?" + ThreadLocalRandom.current().nextInt(entries);
+    }
+
+    @Benchmark
+    public Object find() {
+        return storage.find(randomUrl());
+    }
+
+    @Benchmark
+    public String hit() {
+        return retriever.get(randomUrl(), 24*60*60, "", CachedRetriever.Type.URL);
+    }
+
+    @Benchmark
+    public String miss() {
+        return retriever.get(URL + "?missing", 24*60*60, "", CachedRetriever.Type.URL);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Portal pages used as benchmark inputs. Markup follows the pages served by
+ * real captive portals: meta redirects, CSRF tokens, forms and resource lists
+ * are what Providers look for.
+ */
+public enum Page {
+    GENERATE_204("generate_204.html", "http://connectivitycheck.gstatic.com/generate_204", 200, null),
+    AUTH_WI_FI_RU("auth.wi-fi.ru.html", "http://auth.wi-fi.ru/auth?segment=metro", 200, null),
+    WELCOME_WI_FI_RU("welcome.wi-fi.ru.html", "http://welcome.wi-fi.ru/?client_mac=00-11-22-33-44-55", 200, null),
+    LOGIN_CHI("login.chi.html", "http://connectivitycheck.gstatic.com/generate_204", 302,
+            "http://10.0.0.1/www/login.chi?mac=00:11:22:33:44:55&ip=10.0.0.100"),
+    WIFI_MAI_RU("wifi.mai.ru.html", "https://wifi.mai.ru/login.html", 200, null);
+
+    final String url;
+    final String html;
+    final int code;
+    final Map<String,List<String>> headers = new HashMap<>();
+
+    Page(String filename, String url, int code, String location) {
+        this.url = url;
+        this.html = read("/pages/" + filename);
+        this.code = code;
+
+        if (location != null) {
+            headers.put(Client.HEADER_LOCATION.toLowerCase(), Collections.singletonList(location));
+        }
+    }
+
+    ParsedResponse response() {
+        return new ParsedResponse(url, html, code, headers);
+    }
+
+    private static String read(String name) {
+        try (InputStream input = Page.class.getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IllegalStateException("Resource not found: " + name);
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toString("UTF-8");
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient;
+
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsing methods of ParsedResponse used by Providers on every connection.
+ *
+ * Every benchmark except parseForm creates a new ParsedResponse, because the
+ * DOM is built lazily and cached inside of it.
+ */
+@State(Scope.Thread)
+public class ParsedResponseBenchmark {
+    @Param({"GENERATE_204", "AUTH_WI_FI_RU", "WELCOME_WI_FI_RU", "LOGIN_CHI", "WIFI_MAI_RU"})
+    public Page page;
+
+    private Element form;
+
+    @Setup
+    public void setup() {
+        form = page.response().getPageContent().getElementsByTag("form").first();
+    }
+
+    @Benchmark
+    public ParsedResponse construct() {
+        return page.response();
+    }
+
+    @Benchmark
+    public Object parseDocument() {
+        return page.response().getPageContent();
+    }
+
+    @Benchmark
+    public String parseMetaRedirect() {
+        try {
+            return page.response().parseMetaRedirect();
+        } catch (ParseException ex) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public String parseAnyRedirect() {
+        try {
+            return page.response().parseAnyRedirect();
+        } catch (ParseException ex) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public String parseCsrfToken() {
+        try {
+            return page.response().parseMetaContent("csrf-token");
+        } catch (ParseException ex) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public List<String> parseResourceList() {
+        return page.response().parseResourceList();
+    }
+
+    @Benchmark
+    public Map<String,String> parseForm() {
+        return form != null ? ParsedResponse.parseForm(form) : null;
+    }
+}
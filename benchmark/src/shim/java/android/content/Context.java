@@ -0,0 +1,43 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM replacement of android.content.Context for benchmarks. Provides
+ * a private files directory and an in-memory SharedPreferences.
+ */
+public class Context {
+    private final File files_dir;
+    private final SharedPreferences preferences = new SharedPreferences();
+
+    public Context(File files_dir) {
+        this.files_dir = files_dir;
+        files_dir.mkdirs();
+    }
+
+    public File getFilesDir() {
+        return files_dir;
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences;
+    }
+}
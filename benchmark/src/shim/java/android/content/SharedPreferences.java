@@ -0,0 +1,90 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM replacement of android.content.SharedPreferences for benchmarks.
+ * Values are kept in memory only.
+ */
+public class SharedPreferences {
+    private final Map<String,Object> values = new HashMap<>();
+
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    public synchronized String getString(String key, String def_value) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : def_value;
+    }
+
+    public synchronized int getInt(String key, int def_value) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : def_value;
+    }
+
+    public synchronized boolean getBoolean(String key, boolean def_value) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : def_value;
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    public class Editor {
+        private final Map<String,Object> changes = new HashMap<>();
+
+        public Editor putString(String key, String value) {
+            changes.put(key, value); return this;
+        }
+
+        public Editor putInt(String key, int value) {
+            changes.put(key, value); return this;
+        }
+
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, value); return this;
+        }
+
+        public Editor remove(String key) {
+            changes.put(key, null); return this;
+        }
+
+        public boolean commit() {
+            synchronized (SharedPreferences.this) {
+                for (Map.Entry<String,Object> entry : changes.entrySet()) {
+                    if (entry.getValue() == null) {
+                        values.remove(entry.getKey());
+                    } else {
+                        values.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return true;
+        }
+
+        public void apply() {
+            commit();
+        }
+    }
+}
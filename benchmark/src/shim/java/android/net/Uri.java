@@ -0,0 +1,108 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.net;
+
+/**
+ * JVM replacement of android.net.Uri for benchmarks. Implements only the
+ * parts used by benchmarked code and is as lenient as the original:
+ * malformed strings never cause exceptions.
+ */
+public class Uri {
+    private final String scheme;
+    private final String host;
+    private final String path;
+    private final String query;
+
+    private Uri(String uri) {
+        int end = uri.length();
+
+        int fragment = uri.indexOf('#');
+        if (fragment != -1) end = fragment;
+
+        int colon = uri.indexOf(':');
+        int slash = uri.indexOf('/');
+        if (colon > 0 && (slash == -1 || colon < slash) && colon < end) {
+            scheme = uri.substring(0, colon);
+        } else {
+            scheme = null;
+            colon = -1;
+        }
+
+        int start = colon + 1;
+        String host = null;
+        if (uri.startsWith("//", start)) {
+            int authority_end = start + 2;
+            while (authority_end < end && "/?".indexOf(uri.charAt(authority_end)) == -1) {
+                authority_end++;
+            }
+
+            host = uri.substring(start + 2, authority_end);
+            host = host.substring(host.lastIndexOf('@') + 1);
+            if (host.lastIndexOf(':') > host.lastIndexOf(']')) {
+                host = host.substring(0, host.lastIndexOf(':'));
+            }
+
+            start = authority_end;
+        }
+        this.host = host;
+
+        int question = uri.indexOf('?', start);
+        if (question != -1 && question < end) {
+            path = uri.substring(start, question);
+            query = uri.substring(question + 1, end);
+        } else {
+            path = uri.substring(start, end);
+            query = null;
+        }
+    }
+
+    public static Uri parse(String uri) {
+        return new Uri(uri);
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getQueryParameter(String key) {
+        if (query == null) return null;
+
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq != -1 ? pair.substring(0, eq) : pair;
+            if (name.equals(key)) {
+                return eq != -1 ? pair.substring(eq + 1) : "";
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.util;
+
+import java.util.regex.Pattern;
+
+/**
+ * JVM replacement of android.util.Patterns for benchmarks. WEB_URL is a
+ * simplified version of the original expression with the same intent:
+ * optional scheme, host name or IPv4 address, optional port, path and query.
+ */
+public class Patterns {
+    public static final Pattern WEB_URL = Pattern.compile(
+            "((?i:https?|rtsp)://(?:[\\w$\\-_.+!*'(),;?&=%]{1,64}(?::[\\w$\\-_.+!*'(),;?&=%]{1,25})?@)?)?" +
+            "(?:(?:[\\p{L}\\p{N}](?:[\\p{L}\\p{N}\\-]{0,61}[\\p{L}\\p{N}])?\\.)+\\p{L}{2,63}" +
+            "|(?:\\d{1,3}\\.){3}\\d{1,3}|localhost)" +
+            "(?::\\d{1,5})?" +
+            "(?:[/?#][^\\s]*)?"
+    );
+}
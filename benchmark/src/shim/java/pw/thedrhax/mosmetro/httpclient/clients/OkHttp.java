@@ -0,0 +1,40 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.httpclient.clients;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.Map;
+
+import pw.thedrhax.mosmetro.httpclient.Client;
+import pw.thedrhax.mosmetro.httpclient.ParsedResponse;
+
+/**
+ * Stand-in for OkHttp. Benchmarks don't use the network, so every request
+ * fails immediately.
+ */
+public class OkHttp extends Client {
+    public OkHttp(Context context) {}
+
+    @Override
+    public ParsedResponse get(String link, Map<String,String> params) throws IOException {
+        throw new IOException("Network is not available in benchmarks");
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class of simulated captive portals.
+ *
+ * Clients are identified by their IP address. Until a client passes the
+ * authentication flow of the Portal, every request to other hosts is
+ * redirected to the Portal. Authenticated clients get 204 from generate_204
+ * and a dummy page from any other host.
+ */
+public abstract class Portal {
+    private final Set<String> authenticated =
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final SecureRandom random = new SecureRandom();
+
+    protected boolean banned = false;
+    protected boolean registered = true;
+
+    /**
+     * Redirect requests from /auth to /auto_auth (MosMetroV2) or refuse to
+     * authenticate the client (other portals).
+     */
+    public Portal setBanned(boolean banned) {
+        this.banned = banned; return this;
+    }
+
+    /**
+     * If false, the portal asks the client to identify by phone number.
+     */
+    public Portal setRegistered(boolean registered) {
+        this.registered = registered; return this;
+    }
+
+    public String getName() {
+        return getClass().getSimpleName().replace("Portal", "");
+    }
+
+    /**
+     * @return Response that brings unauthenticated clients to the portal.
+     */
+    protected abstract Response redirect(Request request);
+
+    /**
+     * Handle requests to hosts of the portal itself.
+     * @return Response or null if the request is not addressed to this portal.
+     */
+    protected abstract Response portal(Request request);
+
+    public Response handle(Request request) {
+        Response response = portal(request);
+        if (response != null) return response;
+
+        if (!isAuthenticated(request.client)) {
+            return redirect(request);
+        }
+
+        if (request.path.endsWith("/generate_204") || request.path.endsWith("/gen_204")) {
+            return Response.empty(204);
+        }
+
+        return Response.html(200, "<html><body><h1>Internet</h1></body></html>\n");
+    }
+
+    public boolean isAuthenticated(String client) {
+        return authenticated.contains(client);
+    }
+
+    protected void authenticate(String client) {
+        if (authenticated.add(client)) {
+            PortalSimulator.log(client, getName() + ": authenticated");
+        }
+    }
+
+    /**
+     * Forget all clients, so they have to pass authentication again.
+     */
+    public void reset() {
+        authenticated.clear();
+    }
+
+    /**
+     * @return Random hexadecimal string, e.g. for CSRF tokens.
+     */
+    protected String token(int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            result.append(Integer.toHexString(random.nextInt(16)));
+        }
+        return result.toString().toLowerCase(Locale.ENGLISH);
+    }
+}
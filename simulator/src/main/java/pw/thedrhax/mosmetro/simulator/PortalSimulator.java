@@ -0,0 +1,201 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import pw.thedrhax.mosmetro.simulator.portals.MAInetPortal;
+import pw.thedrhax.mosmetro.simulator.portals.MosMetroV1Portal;
+import pw.thedrhax.mosmetro.simulator.portals.MosMetroV2Portal;
+import pw.thedrhax.mosmetro.simulator.portals.MosMetroV2mccPortal;
+import pw.thedrhax.mosmetro.simulator.portals.MosMetroV3Portal;
+
+/**
+ * Local stand-in for captive portals supported by the app.
+ *
+ * Every request is delayed by latency plus a random jitter, and a part of
+ * requests can be dropped (the connection is closed without a response) to
+ * simulate packet loss. GET /simulator/reset on any host forgets all
+ * authenticated clients.
+ */
+public class PortalSimulator implements HttpHandler {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Portal portal;
+    private final Random random = new Random();
+
+    private int latency = 0;
+    private int jitter = 0;
+    private double loss = 0;
+
+    public PortalSimulator(Portal portal) {
+        this.portal = portal;
+    }
+
+    public PortalSimulator setLatency(int latency, int jitter) {
+        this.latency = latency;
+        this.jitter = jitter;
+        return this;
+    }
+
+    public PortalSimulator setLoss(double loss) {
+        this.loss = loss; return this;
+    }
+
+    static Map<String,Portal> getPortals() {
+        Map<String,Portal> result = new LinkedHashMap<>();
+        for (Portal portal : new Portal[] {
+                new MosMetroV2Portal(), new MosMetroV3Portal(), new MosMetroV2mccPortal(),
+                new MosMetroV1Portal(), new MAInetPortal()
+        }) {
+            result.put(portal.getName(), portal);
+        }
+        return result;
+    }
+
+    static void log(String client, String message) {
+        String time = new SimpleDateFormat("HH:mm:ss.SSS", Locale.ENGLISH).format(new Date());
+        System.out.println(time + " " + client + " " + message);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            Request request = Request.from(exchange);
+
+            synchronized (random) {
+                if (random.nextDouble() < loss) {
+                    log(request.client, request + " -> dropped");
+                    return;
+                }
+            }
+
+            int delay = latency;
+            if (jitter > 0) {
+                synchronized (random) {
+                    delay += random.nextInt(jitter + 1);
+                }
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            Response response;
+            if ("/simulator/reset".equals(request.path)) {
+                portal.reset();
+                response = Response.html(200, "<html><body>Reset</body></html>\n");
+            } else {
+                response = portal.handle(request);
+            }
+
+            log(request.client, request + " -> " + response.code + " (" + delay + " ms)");
+            send(exchange, response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        for (Map.Entry<String,String> header : response.headers.entrySet()) {
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store");
+
+        byte[] body = response.body.getBytes(UTF_8);
+        boolean empty = body.length == 0 || response.code == 204 || response.code == 304;
+        exchange.sendResponseHeaders(response.code, empty ? -1 : body.length);
+
+        if (!empty) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    private static void usage(Map<String,Portal> portals) {
+        System.err.println("Usage: PortalSimulator [options]\n" +
+                "  --portal NAME      one of " + portals.keySet() + " (default: MosMetroV2)\n" +
+                "  --port N           port to listen on (default: 8080)\n" +
+                "  --latency MS       delay of every response (default: 0)\n" +
+                "  --jitter MS        maximum random addition to latency (default: 0)\n" +
+                "  --loss P           probability to drop a request, 0..1 (default: 0)\n" +
+                "  --ban              simulate a ban of the device\n" +
+                "  --unregistered     require identification by phone number");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String,Portal> portals = getPortals();
+
+        Portal portal = portals.get("MosMetroV2");
+        int port = 8080, latency = 0, jitter = 0;
+        double loss = 0;
+        boolean banned = false, registered = true;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--portal":
+                        portal = portals.get(args[++i]);
+                        if (portal == null) usage(portals);
+                        break;
+                    case "--port": port = Integer.parseInt(args[++i]); break;
+                    case "--latency": latency = Integer.parseInt(args[++i]); break;
+                    case "--jitter": jitter = Integer.parseInt(args[++i]); break;
+                    case "--loss": loss = Double.parseDouble(args[++i]); break;
+                    case "--ban": banned = true; break;
+                    case "--unregistered": registered = false; break;
+                    default: usage(portals);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            usage(portals);
+        }
+
+        portal.setBanned(banned).setRegistered(registered);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new PortalSimulator(portal)
+                .setLatency(latency, jitter)
+                .setLoss(loss));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        System.out.println("Simulating " + portal.getName() + " on port " + port +
+                " (latency " + latency + "+" + jitter + " ms, loss " + loss +
+                (banned ? ", banned" : "") + (registered ? "" : ", unregistered") + ")");
+    }
+}
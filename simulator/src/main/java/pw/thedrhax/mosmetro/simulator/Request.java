@@ -0,0 +1,138 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HTTP request received by the simulator.
+ */
+public class Request {
+    public final String client;
+    public final String method;
+    public final String host;
+    public final String path;
+    public final Map<String,String> query;
+    public final String raw_query;
+    public final Map<String,String> form;
+    public final String body;
+
+    private final Headers headers;
+
+    private Request(HttpExchange exchange) throws IOException {
+        URI uri = exchange.getRequestURI();
+
+        client = exchange.getRemoteAddress().getAddress().getHostAddress();
+        method = exchange.getRequestMethod().toUpperCase(Locale.ENGLISH);
+        headers = exchange.getRequestHeaders();
+
+        // Absolute URI is sent when the simulator is used as a proxy
+        String host = uri.getHost();
+        if (host == null) {
+            host = headers.getFirst("Host");
+            if (host != null && host.contains(":")) {
+                host = host.substring(0, host.lastIndexOf(':'));
+            }
+        }
+        this.host = host != null ? host.toLowerCase(Locale.ENGLISH) : "";
+
+        path = uri.getRawPath() != null && !uri.getRawPath().isEmpty() ? uri.getRawPath() : "/";
+        raw_query = uri.getRawQuery();
+        query = parseQuery(raw_query);
+        body = read(exchange.getRequestBody());
+
+        String type = headers.getFirst("Content-Type");
+        if (type != null && type.startsWith("application/x-www-form-urlencoded")) {
+            form = parseQuery(body);
+        } else {
+            form = new HashMap<>();
+        }
+    }
+
+    static Request from(HttpExchange exchange) throws IOException {
+        return new Request(exchange);
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toString("UTF-8");
+    }
+
+    private static Map<String,String> parseQuery(String query) {
+        Map<String,String> result = new HashMap<>();
+        if (query == null || query.isEmpty()) return result;
+
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq != -1 ? pair.substring(0, eq) : pair;
+            String value = eq != -1 ? pair.substring(eq + 1) : "";
+
+            try {
+                result.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException | IllegalArgumentException ignored) {}
+        }
+
+        return result;
+    }
+
+    public String getHeader(String name) {
+        return headers.getFirst(name);
+    }
+
+    /**
+     * @return Value of the query or form parameter, or null if it is absent.
+     */
+    public String param(String name) {
+        return query.containsKey(name) ? query.get(name) : form.get(name);
+    }
+
+    /**
+     * @return Fake MAC address of the client, stable for its IP address.
+     */
+    public String mac() {
+        int hash = client.hashCode();
+        return String.format(Locale.ENGLISH, "02-00-%02x-%02x-%02x-%02x",
+                (hash >> 24) & 0xff, (hash >> 16) & 0xff, (hash >> 8) & 0xff, hash & 0xff);
+    }
+
+    public boolean is(String method, String host, String path) {
+        return this.method.equals(method) && this.host.equals(host) && this.path.equals(path);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + host + path + (raw_query != null ? "?" + raw_query : "");
+    }
+}
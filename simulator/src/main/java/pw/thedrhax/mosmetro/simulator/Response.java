@@ -0,0 +1,74 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP response produced by a Portal.
+ */
+public class Response {
+    public final int code;
+    public final Map<String,String> headers = new LinkedHashMap<>();
+    public final String body;
+
+    private Response(int code, String type, String body) {
+        this.code = code;
+        this.body = body;
+
+        if (type != null) {
+            headers.put("Content-Type", type);
+        }
+    }
+
+    public Response header(String name, String value) {
+        headers.put(name, value); return this;
+    }
+
+    public static Response empty(int code) {
+        return new Response(code, null, "");
+    }
+
+    public static Response html(int code, String body) {
+        return new Response(code, "text/html; charset=utf-8", body);
+    }
+
+    public static Response json(int code, String body) {
+        return new Response(code, "application/json; charset=utf-8", body);
+    }
+
+    /**
+     * Location redirect with the same link in the meta tag, like most portals do.
+     */
+    public static Response redirect(int code, String location) {
+        return html(code, meta(location)).header("Location", location);
+    }
+
+    /**
+     * @return HTML page with a meta redirect.
+     */
+    public static String meta(String location) {
+        return "<html>\n<head>\n" +
+                "<meta http-equiv=\"refresh\" content=\"0; URL=" + location + "\" />\n" +
+                "</head>\n<body>\n" +
+                "<p>You are being redirected to <a href=\"" + location + "\">" + location + "</a></p>\n" +
+                "</body>\n</html>\n";
+    }
+}
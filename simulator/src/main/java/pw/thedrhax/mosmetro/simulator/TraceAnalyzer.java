@@ -0,0 +1,184 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline analyzer of traces recorded by pw.thedrhax.mosmetro.authenticator.Trace
+ * on a device:
+ *
+ * adb exec-out run-as pw.thedrhax.mosmetro cat files/traces.jsonl > traces.jsonl
+ * gradle :simulator:analyzeTraces --args='traces.jsonl ...'
+ *
+ * Prints latency percentiles of whole runs, every task (by Provider and Task
+ * class) and every requested URL.
+ */
+public class TraceAnalyzer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Series {
+        final List<Long> values = new ArrayList<>();
+        int failures = 0;
+        String label = "";
+
+        void add(long value, boolean success) {
+            values.add(value);
+            if (!success) failures++;
+        }
+
+        long percentile(double p) {
+            int index = (int) Math.ceil(p * values.size()) - 1;
+            return values.get(Math.max(0, Math.min(index, values.size() - 1)));
+        }
+
+        String format(String key) {
+            Collections.sort(values);
+            return String.format(Locale.ENGLISH, "%-48s %6d %6d %8d %8d %8d %8d  %s",
+                    key, values.size(), failures,
+                    percentile(0.5), percentile(0.9), percentile(0.99),
+                    values.get(values.size() - 1), label
+            );
+        }
+    }
+
+    private final Map<String,Series> runs = new TreeMap<>();
+    private final Map<String,Series> tasks = new TreeMap<>();
+    private final Map<String,Series> requests = new TreeMap<>();
+    private int count = 0;
+    private int broken = 0;
+
+    private static Series get(Map<String,Series> map, String key) {
+        Series result = map.get(key);
+        if (result == null) {
+            result = new Series();
+            map.put(key, result);
+        }
+        return result;
+    }
+
+    private static long number(JSONObject json, String key) {
+        Object value = json.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    public void add(String line) {
+        JSONObject trace;
+
+        try {
+            trace = (JSONObject) new JSONParser().parse(line);
+        } catch (ParseException | ClassCastException ex) {
+            broken++;
+            return;
+        }
+
+        count++;
+        String provider = (String) trace.get("provider");
+
+        get(runs, provider).add(
+                number(trace, "duration"),
+                "CONNECTED".equals(trace.get("result"))
+        );
+
+        JSONArray task_list = (JSONArray) trace.get("tasks");
+        if (task_list != null) {
+            for (Object item : task_list) {
+                JSONObject task = (JSONObject) item;
+                if (!task.containsKey("e")) continue;
+
+                Series series = get(tasks, task.get("c") + "");
+                series.add(number(task, "e") - number(task, "s"), Boolean.TRUE.equals(task.get("ok")));
+                if (task.containsKey("n")) series.label = (String) task.get("n");
+            }
+        }
+
+        JSONArray request_list = (JSONArray) trace.get("requests");
+        if (request_list != null) {
+            for (Object item : request_list) {
+                JSONObject request = (JSONObject) item;
+                long code = number(request, "c");
+                get(requests, request.get("m") + " " + request.get("u"))
+                        .add(number(request, "l"), code > 0 && code < 400);
+            }
+        }
+    }
+
+    public void add(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) add(line);
+            }
+        }
+    }
+
+    private static void print(StringBuilder out, String title, Map<String,Series> map) {
+        out.append('\n').append(title).append('\n');
+        out.append(String.format(Locale.ENGLISH, "%-48s %6s %6s %8s %8s %8s %8s\n",
+                "", "count", "fail", "p50", "p90", "p99", "max"
+        ));
+        for (Map.Entry<String,Series> entry : map.entrySet()) {
+            out.append(entry.getValue().format(entry.getKey())).append('\n');
+        }
+    }
+
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        out.append("Traces: ").append(count);
+        if (broken > 0) out.append(" (").append(broken).append(" broken)");
+        out.append('\n');
+
+        print(out, "Runs by Provider, ms", runs);
+        print(out, "Tasks, ms", tasks);
+        print(out, "Requests, ms", requests);
+
+        return out.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceAnalyzer <traces.jsonl> [...]");
+            System.exit(1);
+        }
+
+        TraceAnalyzer analyzer = new TraceAnalyzer();
+        for (String path : args) {
+            analyzer.add(new File(path));
+        }
+
+        System.out.print(analyzer.report());
+    }
+}
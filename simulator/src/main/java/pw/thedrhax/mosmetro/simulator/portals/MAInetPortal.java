@@ -0,0 +1,80 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator.portals;
+
+import pw.thedrhax.mosmetro.simulator.Portal;
+import pw.thedrhax.mosmetro.simulator.Request;
+import pw.thedrhax.mosmetro.simulator.Response;
+
+/**
+ * wifi.mai.ru
+ *
+ * ⇒ GET generate_204
+ * ⇐ Location redirect: http://wifi.mai.ru/login.html?redirect=...
+ * ⇒ POST http://wifi.mai.ru/login.html (buttonClicked=4, username, password)
+ *
+ * The real portal uses HTTPS. The simulator redirects to HTTP instead, and
+ * the Provider follows the redirect as is.
+ */
+public class MAInetPortal extends Portal {
+    private static final String HOST = "wifi.mai.ru";
+
+    @Override
+    protected Response redirect(Request request) {
+        return Response.redirect(302, "http://" + HOST + "/login.html?redirect=" +
+                request.host + request.path);
+    }
+
+    private static String page(boolean error) {
+        return "<html>\n<head><title>Web Authentication</title></head>\n<body>\n" +
+                "<form method=\"post\" action=\"/login.html\">\n" +
+                "<input type=\"hidden\" name=\"buttonClicked\" value=\"0\">\n" +
+                "<input type=\"hidden\" name=\"err_flag\" value=\"" + (error ? 1 : 0) + "\">\n" +
+                "<input type=\"hidden\" name=\"redirect_url\" value=\"\">\n" +
+                "<input type=\"hidden\" name=\"network_name\" value=\"Guest Network\">\n" +
+                "<input type=\"text\" name=\"username\">\n" +
+                "<input type=\"password\" name=\"password\">\n" +
+                "</form>\n</body>\n</html>\n";
+    }
+
+    @Override
+    protected Response portal(Request request) {
+        if (!HOST.equals(request.host)) return null;
+
+        if (!"/login.html".equals(request.path)) {
+            return Response.html(404, "<html><body>Not found</body></html>\n");
+        }
+
+        if (!"POST".equals(request.method)) {
+            return Response.html(200, page(false));
+        }
+
+        String username = request.param("username");
+        String password = request.param("password");
+
+        if (banned || !"4".equals(request.param("buttonClicked"))
+                || username == null || username.isEmpty()
+                || password == null || password.isEmpty()) {
+            return Response.html(200, page(true));
+        }
+
+        authenticate(request.client);
+        return Response.html(200, "<html><body>Login Successful</body></html>\n");
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator.portals;
+
+import pw.thedrhax.mosmetro.simulator.Portal;
+import pw.thedrhax.mosmetro.simulator.Request;
+import pw.thedrhax.mosmetro.simulator.Response;
+
+/**
+ * login.wi-fi.ru
+ *
+ * ⇒ GET generate_204
+ * ⇐ Meta-redirect: http://login.wi-fi.ru/am/UI/Login?...
+ * ⇒ GET http://login.wi-fi.ru/am/UI/Login?...
+ * ⇐ Form (two forms if registration is required)
+ * ⇒ POST http://login.wi-fi.ru/am/UI/Login?...
+ */
+public class MosMetroV1Portal extends Portal {
+    private static final String HOST = "login.wi-fi.ru";
+    private static final String PATH = "/am/UI/Login";
+
+    @Override
+    protected Response redirect(Request request) {
+        return Response.html(200, Response.meta("http://" + HOST + PATH +
+                "?org=mac&service=coa&client_mac=" + request.mac() +
+                "&ORIG_URL=http://wi-fi.ru/"
+        ));
+    }
+
+    @Override
+    protected Response portal(Request request) {
+        if (!HOST.equals(request.host)) return null;
+
+        if (!PATH.equals(request.path)) {
+            return Response.html(404, "<html><body>Not found</body></html>\n");
+        }
+
+        if ("POST".equals(request.method)) {
+            if (banned || !request.mac().equals(request.param("IDToken1"))) {
+                return Response.html(403, "<html><body>Authentication failed</body></html>\n");
+            }
+
+            authenticate(request.client);
+            return Response.html(200, "<html><body>You are connected</body></html>\n");
+        }
+
+        StringBuilder page = new StringBuilder();
+        page.append("<html>\n<head><title>Wi-Fi</title></head>\n<body>\n");
+        page.append("<form name=\"Login\" method=\"post\" action=\"\">\n")
+            .append("<input type=\"hidden\" name=\"IDToken1\" value=\"").append(request.mac()).append("\">\n")
+            .append("<input type=\"hidden\" name=\"IDButton\" value=\"Submit\">\n")
+            .append("<input type=\"hidden\" name=\"goto\" value=\"\">\n")
+            .append("<input type=\"hidden\" name=\"encoded\" value=\"false\">\n")
+            .append("<input type=\"hidden\" name=\"gx_charset\" value=\"UTF-8\">\n")
+            .append("</form>\n");
+
+        if (!registered) {
+            page.append("<form name=\"Register\" method=\"post\" action=\"/register\">\n")
+                .append("<input type=\"tel\" name=\"msisdn\" value=\"\">\n")
+                .append("</form>\n");
+        }
+
+        page.append("</body>\n</html>\n");
+        return Response.html(200, page.toString());
+    }
+}
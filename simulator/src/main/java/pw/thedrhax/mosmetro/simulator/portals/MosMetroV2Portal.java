@@ -0,0 +1,127 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator.portals;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pw.thedrhax.mosmetro.simulator.Portal;
+import pw.thedrhax.mosmetro.simulator.Request;
+import pw.thedrhax.mosmetro.simulator.Response;
+
+/**
+ * auth.wi-fi.ru
+ *
+ * ⇒ GET generate_204
+ * ⇐ Meta-redirect: http://auth.wi-fi.ru/?segment=...
+ * ⇒ GET http://auth.wi-fi.ru/?segment=...
+ * ⇐ JavaScript redirect: /auth?segment=...
+ * ⇒ GET http://auth.wi-fi.ru/auth?segment=...
+ * ⇐ Meta csrf-token (or 302 to /auto_auth if banned, /identification if not registered)
+ * ⇒ GET http://auth.wi-fi.ru/auth/set_token?token=...
+ * ⇒ POST http://auth.wi-fi.ru/auth/init?mode=0&segment=... (Header: X-CSRF-Token)
+ * ⇒ GET http://auth.wi-fi.ru/auth/check?segment=...
+ * ⇐ JSON: {"result": true}
+ */
+public class MosMetroV2Portal extends Portal {
+    static final String HOST = "auth.wi-fi.ru";
+
+    private final String segment;
+    private final Map<String,String> tokens = new ConcurrentHashMap<>();
+
+    public MosMetroV2Portal() {
+        this("metro");
+    }
+
+    public MosMetroV2Portal(String segment) {
+        this.segment = segment;
+    }
+
+    @Override
+    protected Response redirect(Request request) {
+        return Response.html(200, Response.meta("http://" + HOST + "/?segment=" + segment));
+    }
+
+    @Override
+    protected Response portal(Request request) {
+        if (!HOST.equals(request.host)) return null;
+
+        switch (request.path) {
+            case "/":
+                return Response.html(200, "<html>\n<head>\n<title>Wi-Fi</title>\n" +
+                        "<script>document.location.href = \"/auth?segment=" + segment + "\";</script>\n" +
+                        "</head>\n<body></body>\n</html>\n");
+
+            case "/auth":
+                if (banned) {
+                    return Response.redirect(302, "http://" + HOST + "/auto_auth?segment=" + segment);
+                }
+
+                if (!registered) {
+                    return Response.redirect(302, "http://" + HOST + "/identification?segment=" + segment);
+                }
+
+                String token = token(32);
+                tokens.put(request.client, token);
+
+                return Response.html(200, "<html>\n<head>\n" +
+                        "<meta name=\"csrf-param\" content=\"authenticity_token\">\n" +
+                        "<meta name=\"csrf-token\" content=\"" + token + "\">\n" +
+                        "<title>Бесплатный Wi-Fi</title>\n" +
+                        "<link rel=\"stylesheet\" href=\"/assets/application.css\">\n" +
+                        "<script src=\"/assets/application.js\"></script>\n" +
+                        "</head>\n<body>\n" +
+                        "<form action=\"/auth/init?segment=" + segment + "\" method=\"post\">\n" +
+                        "<input type=\"hidden\" name=\"authenticity_token\" value=\"" + token + "\">\n" +
+                        "<button type=\"submit\">Войти в интернет</button>\n" +
+                        "</form>\n</body>\n</html>\n");
+
+            case "/auth/set_token":
+                return Response.html(200, "<html><body>OK</body></html>\n");
+
+            case "/auth/init":
+                String expected = tokens.get(request.client);
+                if (!"POST".equals(request.method) || expected == null
+                        || !expected.equals(request.getHeader("X-CSRF-Token"))) {
+                    return Response.json(403, "{\"result\":false,\"error\":\"Invalid CSRF token\"}");
+                }
+
+                authenticate(request.client);
+                return Response.json(200, "{\"result\":true,\"auth_status\":\"authorized\"}");
+
+            case "/auth/check":
+                return Response.json(200, "{\"result\":" + isAuthenticated(request.client) + "}");
+
+            case "/auto_auth":
+                return Response.html(200, "<html><body>\n" +
+                        "<form method=\"post\" action=\"/auto_auth\">\n" +
+                        "<img src=\"/captcha.png\">\n<input type=\"text\" name=\"captcha\">\n" +
+                        "</form>\n</body></html>\n");
+
+            case "/identification":
+                return Response.html(200, "<html><body>\n" +
+                        "<form method=\"post\" action=\"/identification\">\n" +
+                        "<input type=\"tel\" name=\"msisdn\">\n" +
+                        "</form>\n</body></html>\n");
+
+            default:
+                return Response.html(404, "<html><body>Not found</body></html>\n");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator.portals;
+
+import pw.thedrhax.mosmetro.simulator.Portal;
+import pw.thedrhax.mosmetro.simulator.Request;
+import pw.thedrhax.mosmetro.simulator.Response;
+
+/**
+ * MosMetroV2 behind the gateway of MCC (Moscow Central Circle)
+ *
+ * ⇒ GET generate_204
+ * ⇐ Location redirect: http://10.0.0.1/www/login.chi?mac=... ("Browser error!")
+ * ⇒ GET http://10.0.0.1/www/login.chi?mac=...
+ * ⇐ Location redirect: http://auth.wi-fi.ru/?segment=mcc
+ * ... MosMetroV2 ...
+ * ⇒ GET http://hotspot.maximatelecom/login?username=...&password=placeholder
+ * ⇐ Location redirect: http://wi-fi.ru/
+ *
+ * The gateway is addressed by its IP, so this portal can only be used when
+ * the simulator works as an HTTP proxy.
+ */
+public class MosMetroV2mccPortal extends Portal {
+    private static final String GATEWAY = "10.0.0.1";
+    private static final String HOTSPOT = "hotspot.maximatelecom";
+
+    private final MosMetroV2Portal auth = new MosMetroV2Portal("mcc");
+
+    @Override
+    public Portal setBanned(boolean banned) {
+        auth.setBanned(banned);
+        return super.setBanned(banned);
+    }
+
+    @Override
+    public Portal setRegistered(boolean registered) {
+        auth.setRegistered(registered);
+        return super.setRegistered(registered);
+    }
+
+    @Override
+    protected Response redirect(Request request) {
+        String location = "http://" + GATEWAY + "/www/login.chi?mac=" +
+                request.mac().replace('-', ':') + "&ip=" + request.client;
+
+        return Response.html(302, "<html>\n<head><title>Login</title></head>\n<body>\n" +
+                "<h2>Browser error!</h2>\n" +
+                "<p>Your browser does not support redirects. " +
+                "Please follow <a href=\"" + location + "\">this link</a>.</p>\n" +
+                "</body>\n</html>\n"
+        ).header("Location", location);
+    }
+
+    @Override
+    protected Response portal(Request request) {
+        if (request.is("GET", GATEWAY, "/www/login.chi")) {
+            return Response.redirect(302, "http://" + MosMetroV2Portal.HOST + "/?segment=mcc");
+        }
+
+        if (request.is("GET", HOTSPOT, "/login")) {
+            if (!auth.isAuthenticated(request.client) || request.param("username") == null) {
+                return redirect(request);
+            }
+
+            authenticate(request.client);
+            return Response.redirect(302, "http://wi-fi.ru/");
+        }
+
+        return auth.portal(request);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        auth.reset();
+    }
+}
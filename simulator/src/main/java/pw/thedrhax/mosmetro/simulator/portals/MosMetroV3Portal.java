@@ -0,0 +1,120 @@
+/**
+ * Wi-Fi в метро (pw.thedrhax.mosmetro, Moscow Wi-Fi autologin)
+ * Copyright © 2015 Dmitry Karikh <the.dr.hax@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pw.thedrhax.mosmetro.simulator.portals;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import pw.thedrhax.mosmetro.simulator.Portal;
+import pw.thedrhax.mosmetro.simulator.Request;
+import pw.thedrhax.mosmetro.simulator.Response;
+
+/**
+ * welcome.wi-fi.ru
+ *
+ * ⇒ GET generate_204
+ * ⇐ Meta + Location redirect: http://welcome.wi-fi.ru/?client_mac=...
+ * ⇒ GET http://welcome.wi-fi.ru/?client_mac=...
+ * ⇐ Meta csrf-token
+ * ⇒ POST http://welcome.wi-fi.ru/auth/init
+ * ⇒ JSON: {"authenticity_token": ..., "client_mac": ..., "client_ip": ""}
+ * ⇐ JSON: {"result": true, "user_mac": ..., "auth_status": "initial"}
+ * ⇒ GET http://welcome.wi-fi.ru/auth/check?client_mac=...&client_ip=
+ * ⇒ GET http://welcome.wi-fi.ru/success?client_mac=...
+ * ⇐ Location redirect: http://wi-fi.ru/
+ */
+public class MosMetroV3Portal extends Portal {
+    private static final String HOST = "welcome.wi-fi.ru";
+
+    private final Map<String,String> tokens = new ConcurrentHashMap<>();
+    private final Set<String> initialized =
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    @Override
+    protected Response redirect(Request request) {
+        return Response.redirect(302, "http://" + HOST + "/?client_mac=" + request.mac());
+    }
+
+    private static String jsonString(String json, String key) {
+        Matcher matcher = Pattern.compile("\"" + key + "\"\\s*:\\s*\"([^\"]*)\"").matcher(json);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    @Override
+    protected Response portal(Request request) {
+        if (!HOST.equals(request.host)) return null;
+
+        switch (request.path) {
+            case "/":
+                String token = token(32);
+                tokens.put(request.client, token);
+
+                return Response.html(200, "<html>\n<head>\n" +
+                        "<meta name=\"csrf-token\" content=\"" + token + "\">\n" +
+                        "<title>Wi-Fi в метро</title>\n" +
+                        "<link rel=\"stylesheet\" href=\"/static/css/main.css\">\n" +
+                        "<script src=\"/static/js/main.js\"></script>\n" +
+                        "</head>\n<body><div id=\"root\"></div></body>\n</html>\n");
+
+            case "/auth/init":
+                String expected = tokens.get(request.client);
+                if (!"POST".equals(request.method) || expected == null
+                        || !expected.equals(jsonString(request.body, "authenticity_token"))) {
+                    return Response.json(403, "{\"result\":false,\"error\":\"Invalid token\"}");
+                }
+
+                if (banned) {
+                    return Response.json(200, "{\"result\":false,\"auth_status\":\"banned\"}");
+                }
+
+                if (!registered) {
+                    return Response.json(200, "{\"result\":false,\"auth_status\":\"identification\"}");
+                }
+
+                initialized.add(request.client);
+                return Response.json(200, "{\"result\":true,\"user_mac\":\"" + request.mac() +
+                        "\",\"auth_status\":\"initial\"}");
+
+            case "/auth/check":
+                return Response.json(200, "{\"result\":true,\"auth_status\":\"" +
+                        (initialized.contains(request.client) ? "authorized" : "initial") + "\"}");
+
+            case "/success":
+                if (!initialized.remove(request.client)) {
+                    return Response.redirect(302, "http://" + HOST + "/?client_mac=" + request.mac());
+                }
+
+                authenticate(request.client);
+                return Response.redirect(302, "http://wi-fi.ru/");
+
+            default:
+                return Response.html(404, "<html><body>Not found</body></html>\n");
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        initialized.clear();
+    }
+}